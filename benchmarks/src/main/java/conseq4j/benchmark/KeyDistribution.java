@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/** How the sequence keys of the submitted tasks are drawn from the key space */
+public enum KeyDistribution {
+  /** Every key equally likely */
+  UNIFORM {
+    @Override
+    int[] ranks(int cardinality, int sampleSize, long seed) {
+      SplittableRandom random = new SplittableRandom(seed);
+      int[] ranks = new int[sampleSize];
+      for (int i = 0; i < sampleSize; i++) {
+        ranks[i] = random.nextInt(cardinality);
+      }
+      return ranks;
+    }
+  },
+  /** Key of rank k drawn with probability proportional to 1/k^0.99, a few keys being hot */
+  ZIPF {
+    @Override
+    int[] ranks(int cardinality, int sampleSize, long seed) {
+      double[] cumulative = new double[cardinality];
+      double total = 0;
+      for (int rank = 1; rank <= cardinality; rank++) {
+        total += 1 / Math.pow(rank, ZIPF_EXPONENT);
+        cumulative[rank - 1] = total;
+      }
+      SplittableRandom random = new SplittableRandom(seed);
+      int[] ranks = new int[sampleSize];
+      for (int i = 0; i < sampleSize; i++) {
+        int found = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+        ranks[i] = Math.min(found < 0 ? -found - 1 : found, cardinality - 1);
+      }
+      return ranks;
+    }
+  },
+  /**
+   * Uniform, except for a burst every {@value #BURST_PERIOD} draws, lasting {@value #BURST_LENGTH}
+   * draws, in which nine out of ten draws go to a single hot key
+   */
+  HOT_KEY_BURSTS {
+    @Override
+    int[] ranks(int cardinality, int sampleSize, long seed) {
+      int[] ranks = UNIFORM.ranks(cardinality, sampleSize, seed);
+      SplittableRandom random = new SplittableRandom(seed);
+      for (int i = 0; i < sampleSize; i++) {
+        if (i % BURST_PERIOD < BURST_LENGTH && random.nextInt(10) != 0) {
+          ranks[i] = HOT_KEY_RANK;
+        }
+      }
+      return ranks;
+    }
+  };
+
+  static final double ZIPF_EXPONENT = 0.99;
+  static final int BURST_PERIOD = 100_000;
+  static final int BURST_LENGTH = 10_000;
+  static final int HOT_KEY_RANK = 0;
+
+  /**
+   * Draws the keys ahead of time, boxed, so that neither drawing nor boxing is measured. Draws of
+   * the same rank share one key instance.
+   *
+   * @param cardinality number of distinct keys in the key space
+   * @param sampleSize number of keys to draw
+   * @param seed of the random draws, so that runs are comparable
+   * @param keyType type of the drawn keys
+   * @return the drawn keys
+   */
+  Object[] sample(int cardinality, int sampleSize, long seed, KeyType keyType) {
+    int[] ranks = ranks(cardinality, sampleSize, seed);
+    Object[] keysByRank = new Object[cardinality];
+    Object[] keys = new Object[sampleSize];
+    for (int i = 0; i < sampleSize; i++) {
+      Object key = keysByRank[ranks[i]];
+      if (key == null) {
+        key = keyType.keyOf(ranks[i]);
+        keysByRank[ranks[i]] = key;
+      }
+      keys[i] = key;
+    }
+    return keys;
+  }
+
+  /**
+   * @param cardinality number of distinct keys in the key space
+   * @param sampleSize number of ranks to draw
+   * @param seed of the random draws, so that runs are comparable
+   * @return the drawn ranks of keys, from zero
+   */
+  abstract int[] ranks(int cardinality, int sampleSize, long seed);
+}
@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.benchmark;
+
+/**
+ * Type of the sequence keys of the submitted tasks. The executors special-case {@code Long} keys
+ * with a primitive-keyed table, whereas any other key type goes through a general hash map, so
+ * both need measuring.
+ */
+public enum KeyType {
+  /** Boxed {@code Long}, taking the long-keyed path where an executor has one */
+  LONG {
+    @Override
+    Object keyOf(int rank) {
+      return (long) rank;
+    }
+  },
+  /** {@code String}, e.g. an entity id as text, taking the general object-keyed path */
+  STRING {
+    @Override
+    Object keyOf(int rank) {
+      return "key-" + rank;
+    }
+  },
+  /** Well-spread {@code UUID}, whose hash code is not cached, taking the object-keyed path */
+  UUID {
+    @Override
+    Object keyOf(int rank) {
+      return new java.util.UUID(GOLDEN_GAMMA * (rank + 1L), rank);
+    }
+  };
+
+  static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  /**
+   * @param rank of the key in the key space, from zero
+   * @return the key of the rank, equal for equal ranks
+   */
+  abstract Object keyOf(int rank);
+}
@@ -0,0 +1,251 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.benchmark;
+
+import conseq4j.metrics.Histogram;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load harness: drives a sequencing strategy at fixed arrival rates, regardless of how
+ * fast the strategy keeps up, and reports the latency of each task from its intended start time,
+ * i.e. its scheduled arrival, rather than from the time it actually got submitted. A producer
+ * falling behind schedule therefore cannot hide the queueing delay a stalled strategy causes
+ * (coordinated omission).
+ *
+ * <p>For each of the given arrival rates, in ascending order, a row of achieved throughput and
+ * latency percentiles is printed, tracing the throughput-vs-latency curve of the strategy; the
+ * saturation knee is where the achieved throughput stops following the target rate and the
+ * latency percentiles take off. The curve is traced once per key type, as executors look up
+ * {@code Long} keys and other keys on different paths. Options, all of the form {@code
+ * --name=value}:
+ *
+ * <ul>
+ *   <li>{@code strategy} - one of {@link Strategy}, default {@code CONSEQ_EXECUTOR_VIRTUAL}
+ *   <li>{@code keys} - one of {@link KeyDistribution}, default {@code ZIPF}
+ *   <li>{@code keyTypes} - comma-separated {@link KeyType}s, default {@code LONG,UUID}
+ *   <li>{@code keyCardinality} - number of distinct keys, default 1,000,000
+ *   <li>{@code rates} - comma-separated arrival rates per second, default 10000,50000,100000
+ *   <li>{@code duration} - seconds to run each rate, default 30
+ *   <li>{@code serviceMicros} - busy time of each task, default 10
+ *   <li>{@code producers} - number of producer threads, default 4
+ *   <li>{@code csv} - path of a CSV file to also write the rows to, default none
+ * </ul>
+ */
+public final class LoadGenerator {
+  static final int KEY_SAMPLE_SIZE = 1 << 22;
+  static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+  static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private LoadGenerator() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = parse(args);
+    Strategy strategy =
+        Strategy.valueOf(options.getOrDefault("strategy", "CONSEQ_EXECUTOR_VIRTUAL"));
+    KeyDistribution keys = KeyDistribution.valueOf(options.getOrDefault("keys", "ZIPF"));
+    List<KeyType> keyTypes = Arrays.stream(options.getOrDefault("keyTypes", "LONG,UUID").split(","))
+        .map(KeyType::valueOf)
+        .toList();
+    int keyCardinality = Integer.parseInt(options.getOrDefault("keyCardinality", "1000000"));
+    long[] rates = Arrays.stream(options.getOrDefault("rates", "10000,50000,100000").split(","))
+        .mapToLong(Long::parseLong)
+        .sorted()
+        .toArray();
+    Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30")));
+    long serviceNanos = TimeUnit.MICROSECONDS.toNanos(
+        Long.parseLong(options.getOrDefault("serviceMicros", "10")));
+    int producers = Integer.parseInt(options.getOrDefault("producers", "4"));
+
+    System.out.printf(
+        "strategy=%s keys=%s keyCardinality=%d duration=%s serviceMicros=%d producers=%d%n",
+        strategy,
+        keys,
+        keyCardinality,
+        duration,
+        TimeUnit.NANOSECONDS.toMicros(serviceNanos),
+        producers);
+    List<Result> results = new ArrayList<>();
+    for (KeyType keyType : keyTypes) {
+      Object[] keySample = keys.sample(keyCardinality, KEY_SAMPLE_SIZE, 42, keyType);
+      System.out.printf("%nkeyType=%s%n", keyType);
+      System.out.println(Result.header());
+      for (long rate : rates) {
+        Result result =
+            new Run(strategy, keyType, keySample, rate, duration, serviceNanos, producers).run();
+        results.add(result);
+        System.out.println(result.row());
+      }
+    }
+    String csv = options.get("csv");
+    if (csv != null) {
+      try (PrintStream out = new PrintStream(Files.newOutputStream(Path.of(csv)))) {
+        out.println(Result.csvHeader());
+        results.forEach(r -> out.println(r.csvRow()));
+      }
+    }
+  }
+
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("expecting --name=value, but given: " + arg);
+      }
+      options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+    return options;
+  }
+
+  /** Busy-spins rather than sleeps, so that the task occupies its worker thread like real work */
+  private static void work(long serviceNanos) {
+    long end = System.nanoTime() + serviceNanos;
+    while (System.nanoTime() < end) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private static void awaitIntendedStart(long intendedNanos) {
+    long remaining;
+    while ((remaining = intendedNanos - System.nanoTime()) > 0) {
+      if (remaining > SPIN_THRESHOLD_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /** One fixed-rate run against a fresh instance of the strategy */
+  private record Run(
+      Strategy strategy,
+      KeyType keyType,
+      Object[] keySample,
+      long rate,
+      Duration duration,
+      long serviceNanos,
+      int producers) {
+    Result run() throws InterruptedException {
+      Histogram latencyNanos = new Histogram();
+      LongAdder rejected = new LongAdder();
+      AtomicLong lastCompletionNanos = new AtomicLong();
+      long arrivals = rate * duration.toSeconds();
+      double intervalNanos = 1e9 / rate;
+      long startNanos;
+      try (Sequencer sequencer = strategy.start()) {
+        startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+          int producer = p;
+          producerThreads.add(Thread.ofPlatform().name("load-producer-" + p).start(() -> {
+            for (long i = producer; i < arrivals; i += producers) {
+              long intendedNanos = startNanos + (long) (i * intervalNanos);
+              awaitIntendedStart(intendedNanos);
+              Runnable task = () -> {
+                work(serviceNanos);
+                long completedNanos = System.nanoTime();
+                latencyNanos.record(completedNanos - intendedNanos);
+                lastCompletionNanos.accumulateAndGet(completedNanos, Math::max);
+              };
+              try {
+                sequencer.submit(task, keySample[(int) (i % keySample.length)]);
+              } catch (RejectedExecutionException e) {
+                rejected.increment();
+              }
+            }
+          }));
+        }
+        for (Thread producerThread : producerThreads) {
+          producerThread.join();
+        }
+      }
+      long completed = latencyNanos.count();
+      long elapsedNanos = Math.max(lastCompletionNanos.get() - startNanos, 1);
+      return new Result(
+          keyType, rate, completed * 1e9 / elapsedNanos, rejected.sum(), latencyNanos);
+    }
+  }
+
+  /** Achieved throughput and latency percentiles of one run */
+  private record Result(
+      KeyType keyType,
+      long targetRate,
+      double achievedRate,
+      long rejected,
+      Histogram latencyNanos) {
+    static String header() {
+      StringBuilder header = new StringBuilder(
+          String.format(Locale.ROOT, "%12s %12s %10s", "target/s", "achieved/s", "rejected"));
+      for (double percentile : PERCENTILES) {
+        header.append(String.format(Locale.ROOT, " %12s", "p" + percentile + "(us)"));
+      }
+      return header.append(String.format(Locale.ROOT, " %12s", "max(us)")).toString();
+    }
+
+    static String csvHeader() {
+      StringBuilder header = new StringBuilder("key_type,target_rate,achieved_rate,rejected");
+      for (double percentile : PERCENTILES) {
+        header.append(",p").append(percentile).append("_us");
+      }
+      return header.append(",max_us").toString();
+    }
+
+    String row() {
+      StringBuilder row = new StringBuilder(String.format(
+          Locale.ROOT, "%12d %12.0f %10d", targetRate, achievedRate, rejected));
+      for (double percentile : PERCENTILES) {
+        row.append(String.format(
+            Locale.ROOT, " %12.1f", latencyNanos.valueAtPercentile(percentile) / 1e3));
+      }
+      return row.append(String.format(Locale.ROOT, " %12.1f", latencyNanos.max() / 1e3))
+          .toString();
+    }
+
+    String csvRow() {
+      StringBuilder row = new StringBuilder(String.format(
+          Locale.ROOT, "%s,%d,%.0f,%d", keyType, targetRate, achievedRate, rejected));
+      for (double percentile : PERCENTILES) {
+        row.append(String.format(
+            Locale.ROOT, ",%.1f", latencyNanos.valueAtPercentile(percentile) / 1e3));
+      }
+      return row.append(String.format(Locale.ROOT, ",%.1f", latencyNanos.max() / 1e3))
+          .toString();
+    }
+  }
+}
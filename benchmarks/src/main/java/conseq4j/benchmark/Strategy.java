@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.benchmark;
+
+import conseq4j.execute.ConseqExecutor;
+import conseq4j.execute.ConseqQueueExecutor;
+import conseq4j.execute.SequentialExecutor;
+import conseq4j.summon.ConseqServiceFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** The sequencing strategies, and thread pool flavors thereof, to compare */
+public enum Strategy {
+  /** {@link ConseqExecutor} on per-task virtual threads, the default */
+  CONSEQ_EXECUTOR_VIRTUAL {
+    @Override
+    public Sequencer start() {
+      return of(ConseqExecutor.instance());
+    }
+  },
+  /** {@link ConseqExecutor} on a work-stealing pool of the available processors */
+  CONSEQ_EXECUTOR_WORK_STEALING {
+    @Override
+    public Sequencer start() {
+      return of(ConseqExecutor.instance(Runtime.getRuntime().availableProcessors()));
+    }
+  },
+  /** {@link ConseqExecutor} on a custom, fixed platform thread pool of the available processors */
+  CONSEQ_EXECUTOR_FIXED_POOL {
+    @Override
+    public Sequencer start() {
+      return of(ConseqExecutor.instance(
+          Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())));
+    }
+  },
+  /** {@link ConseqQueueExecutor} on per-drainer virtual threads, the default */
+  CONSEQ_QUEUE_EXECUTOR {
+    @Override
+    public Sequencer start() {
+      return of(ConseqQueueExecutor.instance());
+    }
+  },
+  /** {@link ConseqServiceFactory} of the available processors as concurrency, the default */
+  CONSEQ_SERVICE_FACTORY {
+    @Override
+    public Sequencer start() {
+      ConseqServiceFactory factory = ConseqServiceFactory.instance();
+      return new Sequencer() {
+        @Override
+        public Future<?> submit(Runnable task, Object sequenceKey) {
+          return factory.getExecutorService(sequenceKey).submit(task);
+        }
+
+        @Override
+        public void close() {
+          factory.close();
+        }
+      };
+    }
+  };
+
+  private static <E extends SequentialExecutor & AutoCloseable> Sequencer of(E executor) {
+    return new Sequencer() {
+      @Override
+      public Future<?> submit(Runnable task, Object sequenceKey) {
+        return executor.execute(task, sequenceKey);
+      }
+
+      @Override
+      public void close() {
+        try {
+          executor.close();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return a new instance of the strategy, to be closed after use
+   */
+  public abstract Sequencer start();
+}
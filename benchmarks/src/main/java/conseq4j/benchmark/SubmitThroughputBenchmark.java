@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.benchmark;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sustained submit throughput of each strategy. Each producer thread keeps at most {@value
+ * #MAX_OUTSTANDING} of its tasks outstanding, awaiting the oldest before submitting more, so that
+ * the measured rate is one the strategy can keep up with rather than how fast a backlog can pile
+ * up. The producer count is set per run with the JMH {@code -t} option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitThroughputBenchmark {
+  static final int MAX_OUTSTANDING = 1024;
+  static final int KEY_SAMPLE_SIZE = 1 << 20;
+  static final Runnable NO_OP = () -> {};
+
+  @Benchmark
+  public Future<?> submit(Sequencers sequencers, Producer producer)
+      throws ExecutionException, InterruptedException {
+    return producer.submit(sequencers.sequencer, NO_OP);
+  }
+
+  /** The strategy under benchmark, and the keys to submit tasks under */
+  @State(Scope.Benchmark)
+  public static class Sequencers {
+    @Param
+    public Strategy strategy;
+
+    @Param({"1", "1000", "1000000"})
+    public int keyCardinality;
+
+    @Param
+    public KeyDistribution keyDistribution;
+
+    @Param
+    public KeyType keyType;
+
+    Sequencer sequencer;
+    Object[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      keys = keyDistribution.sample(keyCardinality, KEY_SAMPLE_SIZE, 42, keyType);
+      sequencer = strategy.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      sequencer.close();
+    }
+  }
+
+  /** A producer thread's position in the key sample, and its outstanding tasks */
+  @State(Scope.Thread)
+  public static class Producer {
+    private final Future<?>[] outstanding = new Future<?>[MAX_OUTSTANDING];
+    private int submitted;
+    private Object[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp(Sequencers sequencers) {
+      keys = sequencers.keys;
+      submitted = ThreadLocalRandom.current().nextInt(KEY_SAMPLE_SIZE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void awaitOutstanding() throws ExecutionException, InterruptedException {
+      for (int i = 0; i < MAX_OUTSTANDING; i++) {
+        if (outstanding[i] != null) {
+          outstanding[i].get();
+          outstanding[i] = null;
+        }
+      }
+    }
+
+    Future<?> submit(Sequencer sequencer, Runnable task)
+        throws ExecutionException, InterruptedException {
+      int slot = submitted & (MAX_OUTSTANDING - 1);
+      Future<?> oldest = outstanding[slot];
+      if (oldest != null) {
+        oldest.get();
+      }
+      Future<?> future = sequencer.submit(task, nextKey());
+      outstanding[slot] = future;
+      return future;
+    }
+
+    Object nextKey() {
+      return keys[submitted++ & (KEY_SAMPLE_SIZE - 1)];
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.ToString;
+
+/**
+ * Global admission control over the total number of tasks in flight, i.e. submitted but not yet
+ * completed, across all sequence keys.
+ *
+ * <p>An instance can be configured into one or more conseq4j executors, which acquire a permit for
+ * each task they admit, and release the permit when the task completes or is dropped. A task that
+ * cannot acquire a permit is refused instead of being queued, so that memory stays flat no matter
+ * how many sequence keys are backlogged. Producers need not wait on refusals, though: They can
+ * check {@link #hasPermit()} before submitting, and pause on {@link #whenPermitAvailable()} to
+ * resume submitting once a permit is released.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString
+public final class InFlightLimit {
+  private static final CompletionStage<Void> PERMIT_AVAILABLE =
+      CompletableFuture.<Void>completedFuture(null).minimalCompletionStage();
+
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /** Completes on the next permit release; replaced once completed */
+  @ToString.Exclude
+  private final AtomicReference<CompletableFuture<Void>> permitSignal = new AtomicReference<>();
+
+  private InFlightLimit(int maxInFlight) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive max in-flight tasks, but given: " + maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * @param maxInFlight max number of tasks in flight at any given time
+   * @return a new in-flight limit
+   */
+  public static @Nonnull InFlightLimit of(int maxInFlight) {
+    return new InFlightLimit(maxInFlight);
+  }
+
+  /**
+   * Non-blocking, and normally invoked by the executors rather than the API client.
+   *
+   * @return true if a permit is acquired
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= maxInFlight) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases a previously acquired permit, and signals producers awaiting permit availability.
+   * Normally invoked by the executors rather than the API client.
+   */
+  public void release() {
+    inFlight.decrementAndGet();
+    CompletableFuture<Void> signal = permitSignal.get();
+    if (signal != null) {
+      signal.complete(null);
+    }
+  }
+
+  /**
+   * Non-blocking
+   *
+   * @return true if a permit is available at the time of invocation, i.e. a task submitted right
+   *     now is likely to be admitted
+   */
+  public boolean hasPermit() {
+    return inFlight.get() < maxInFlight;
+  }
+
+  /**
+   * The returned stage completes as soon as a permit is available, which may have been taken again
+   * by the time a dependent action runs. Dependent actions may run on the thread that releases the
+   * permit, e.g. a worker thread; use the async variants of {@link CompletionStage} methods to run
+   * heavier actions elsewhere.
+   *
+   * @return a read-only stage that completes when a permit is available
+   */
+  public @Nonnull CompletionStage<Void> whenPermitAvailable() {
+    if (hasPermit()) {
+      return PERMIT_AVAILABLE;
+    }
+    CompletableFuture<Void> signal;
+    while (true) {
+      signal = permitSignal.get();
+      if (signal != null && !signal.isDone()) {
+        break;
+      }
+      CompletableFuture<Void> renewed = new CompletableFuture<>();
+      if (permitSignal.compareAndSet(signal, renewed)) {
+        signal = renewed;
+        break;
+      }
+    }
+    if (hasPermit()) {
+      signal.complete(null);
+    }
+    return signal.minimalCompletionStage();
+  }
+
+  /** @return number of tasks in flight */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /** @return max number of tasks in flight at any given time */
+  public int maxInFlight() {
+    return maxInFlight;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j;
+
+/**
+ * Decides what happens to a task submitted while the sequential task queue it is destined for is
+ * already full.
+ */
+public enum OverflowPolicy {
+  /** The submitting thread blocks until the task queue has room for the task. */
+  BLOCK,
+  /**
+   * The task is rejected by throwing a {@link java.util.concurrent.RejectedExecutionException} to
+   * the submitting thread.
+   */
+  REJECT,
+  /**
+   * The oldest task in the queue that has not yet started executing is cancelled and removed, to
+   * make room for the submitted task.
+   */
+  DROP_OLDEST,
+  /** The submitted task is cancelled without ever being queued for execution. */
+  DROP_NEWEST
+}
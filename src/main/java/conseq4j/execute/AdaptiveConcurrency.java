@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.Builder;
+import lombok.ToString;
+
+/**
+ * Adaptive limit of the number of tasks running at once, i.e. of the sequence keys concurrently
+ * dispatched, adjusted by the gradient of the observed task run times.
+ *
+ * <p>Each completed task samples its run time into a short-term and a long-term average. While the
+ * short-term average stays within the tolerance of the long-term one, the limit grows by about its
+ * square root per adjustment; once the short-term average exceeds the tolerance, e.g. because a
+ * downstream service queues up, the limit shrinks in proportion to the excess. The limit only
+ * grows while in use, so that an idle spell does not inflate it.
+ *
+ * <p>A task beyond the limit waits for a running task to complete without holding a thread. An
+ * instance can be shared by executors calling the same downstream service.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString
+public final class AdaptiveConcurrency {
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 500;
+  private static final double SMOOTHING = 0.2;
+  private static final CompletableFuture<Void> ACQUIRED =
+      CompletableFuture.completedFuture(null);
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+
+  private double limit;
+  private int inFlight;
+  private double shortNanos;
+  private double longNanos;
+
+  @ToString.Exclude
+  private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+  /**
+   * Private constructor backing the builder. Any unspecified argument takes its default.
+   *
+   * @param initialLimit limit before any run time is observed. Defaults to 20, or the max limit
+   *     if lower.
+   * @param minLimit floor of the limit. Defaults to 1.
+   * @param maxLimit ceiling of the limit. Defaults to 1000.
+   * @param tolerance ratio of the short-term to the long-term average run time beyond which the
+   *     limit shrinks, not less than 1. Defaults to 1.5.
+   */
+  @Builder
+  private AdaptiveConcurrency(
+      Integer initialLimit, Integer minLimit, Integer maxLimit, Double tolerance) {
+    this.minLimit = minLimit == null ? 1 : minLimit;
+    if (this.minLimit <= 0) {
+      throw new IllegalArgumentException("expecting positive min limit, but given: " + minLimit);
+    }
+    this.maxLimit = maxLimit == null ? Math.max(1000, this.minLimit) : maxLimit;
+    if (this.maxLimit < this.minLimit) {
+      throw new IllegalArgumentException(
+          "expecting max limit no less than min limit, but given: " + maxLimit);
+    }
+    this.limit = initialLimit == null
+        ? Math.max(this.minLimit, Math.min(20, this.maxLimit))
+        : initialLimit;
+    if (this.limit < this.minLimit || this.limit > this.maxLimit) {
+      throw new IllegalArgumentException(
+          "expecting initial limit between min and max limits, but given: " + initialLimit);
+    }
+    this.tolerance = tolerance == null ? 1.5 : tolerance;
+    if (!(this.tolerance >= 1)) {
+      throw new IllegalArgumentException(
+          "expecting tolerance no less than 1, but given: " + tolerance);
+    }
+  }
+
+  /** @return the current limit of the number of tasks running at once */
+  public synchronized int limit() {
+    return (int) limit;
+  }
+
+  /** @return the number of tasks running */
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return a stage that completes once the caller may run a task, right away if under the limit;
+   *     the caller then must {@link #release} once the task completes
+   */
+  synchronized CompletableFuture<Void> acquire() {
+    if (waiting.isEmpty() && inFlight < (int) limit) {
+      inFlight++;
+      return ACQUIRED;
+    }
+    CompletableFuture<Void> permit = new CompletableFuture<>();
+    waiting.add(permit);
+    return permit;
+  }
+
+  /**
+   * Releases an acquired permit, adjusting the limit by the run time of the task that held it, and
+   * admits the tasks waiting within the limit.
+   *
+   * @param runNanos run time of the task, or negative if the task did not run
+   */
+  void release(long runNanos) {
+    List<CompletableFuture<Void>> admitted;
+    synchronized (this) {
+      if (runNanos >= 0) {
+        sample(runNanos);
+      }
+      inFlight--;
+      admitted = new ArrayList<>();
+      while (inFlight < (int) limit && !waiting.isEmpty()) {
+        inFlight++;
+        admitted.add(waiting.poll());
+      }
+    }
+    admitted.forEach(permit -> permit.complete(null));
+  }
+
+  private void sample(long runNanos) {
+    if (longNanos == 0) {
+      shortNanos = longNanos = Math.max(1, runNanos);
+      return;
+    }
+    shortNanos += (runNanos - shortNanos) / SHORT_WINDOW;
+    longNanos += (runNanos - longNanos) / LONG_WINDOW;
+    double gradient =
+        Math.max(0.5, Math.min(1, tolerance * Math.max(1, longNanos) / Math.max(1, shortNanos)));
+    if (gradient == 1 && inFlight < limit / 2) {
+      return;
+    }
+    double target = limit * gradient + Math.sqrt(limit);
+    limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+  }
+}
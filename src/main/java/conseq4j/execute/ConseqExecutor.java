@@ -24,15 +24,29 @@
 
 package conseq4j.execute;
 
-import static coco4j.Tasks.callUnchecked;
-
 import coco4j.DefensiveFuture;
+import conseq4j.DeadLetter;
+import conseq4j.FailurePolicy;
+import conseq4j.InFlightLimit;
 import conseq4j.Terminable;
+import conseq4j.metrics.ConseqMetrics;
+import conseq4j.metrics.HotKey;
+import conseq4j.metrics.HotKeySketch;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
+import lombok.Builder;
 import lombok.NonNull;
 import lombok.ToString;
 
@@ -40,11 +54,21 @@ import lombok.ToString;
  * Relies on the JDK {@link CompletableFuture} as the sequential executor of the tasks under the
  * same sequence key.
  *
+ * <p>The chained work stages of a key keep no count, so this executor has no per-key bound on the
+ * pending tasks of a key: the number of pending tasks across all keys can be bounded by an {@link
+ * InFlightLimit}, but a single hot key can take up the whole limit and have the tasks of all the
+ * other keys rejected. Only the {@link ConseqQueueExecutor} bounds the pending tasks per key, with
+ * a per-key capacity and an {@link conseq4j.OverflowPolicy}.
+ *
  * @author Qingtian Wang
  */
 @ThreadSafe
 @ToString
-public final class ConseqExecutor implements SequentialExecutor, Terminable, AutoCloseable {
+public final class ConseqExecutor
+    implements SequentialExecutor, LongSequentialExecutor, Terminable, AutoCloseable {
+  /** Awaited by the work stage of a task that leaves its key going on as usual */
+  private static final CompletableFuture<Void> SETTLED = CompletableFuture.completedFuture(null);
+
   /**
    * A concurrent hash map whose entries represent execution queues of sequential tasks. Each key in
    * the map is a sequence key, and the value is a CompletableFuture. Each completion stage of the
@@ -53,11 +77,11 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
   private final Map<Object, CompletableFuture<?>> executionQueues = new ConcurrentHashMap<>();
 
   /**
-   * An ExecutorService used for administrative tasks, such as cleaning up completed tasks from the
-   * activeSequentialTasks map.
+   * Execution queues of primitive long sequence keys, kept apart from the hash map so the keys
+   * are never boxed. {@link Long} and {@link Integer} keys of the general API are routed here too,
+   * so that the same numeric key is sequenced the same way through either API.
    */
-  private final ExecutorService adminExecutorService = Executors.newThreadPerTaskExecutor(
-      Thread.ofVirtual().name("conseq-admin-", 1).factory());
+  private final LongKeyedExecutionQueues longKeyedExecutionQueues;
 
   /**
    * The worker thread pool facilitates the overall async execution, independent of the submitted
@@ -66,14 +90,138 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    */
   private final ExecutorService workerExecutorService;
 
+  /** Caps the total number of pending tasks across all sequence keys, if not null */
+  private final InFlightLimit inFlightLimit;
+
+  /** Reports the failures of commands executed and forgotten, if not null */
+  @ToString.Exclude
+  private final Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
+
+  @ToString.Exclude
+  private final ConseqMetrics metrics;
+
+  /** Whether to take timings for the metrics, i.e. the metrics are not the no-op default */
+  private final boolean metered;
+
+  /** Tracks the most frequently submitted sequence keys, if not null */
+  @ToString.Exclude
+  private final HotKeySketch hotKeySketch;
+
+  /** Pending task count of each hot sequence key, only kept if hot keys are tracked */
+  @ToString.Exclude
+  private final ConcurrentMap<Object, Integer> backlogs;
+
   /**
-   * Private constructor that initializes the workerExecutorService.
+   * Latest conflating task of each sequence key, until the task completes or is superseded. An
+   * {@link Integer} key is held as its {@link Long}, the same sequence.
+   */
+  @ToString.Exclude
+  private final ConcurrentMap<Object, Conflation<?>> conflations = new ConcurrentHashMap<>();
+
+  private final FailurePolicy failurePolicy;
+
+  /** Receives the failed tasks, if not null */
+  @ToString.Exclude
+  private final Consumer<DeadLetter> deadLetterSink;
+
+  /** Halt of each sequence key halted by a failure, until resumed or done discarding */
+  @ToString.Exclude
+  private final ConcurrentMap<Object, Halt> halts = new ConcurrentHashMap<>();
+
+  /** Limits the dispatch rate of each sequence key, if not null */
+  private final RateLimit perKeyRateLimit;
+
+  /** Token bucket of each sequence key under the per-key rate limit, until full again */
+  @ToString.Exclude
+  private final ConcurrentMap<Object, RateLimit.TokenBucket> keyBuckets;
+
+  /** Token bucket of the global rate limit across all sequence keys, if not null */
+  @ToString.Exclude
+  private final RateLimit.TokenBucket globalBucket;
+
+  /** Adaptively limits the number of tasks running at once, if not null */
+  private final AdaptiveConcurrency adaptiveConcurrency;
+
+  /** Chains the work stages of sequence keys, under key affinity if enabled */
+  @ToString.Exclude
+  private final WorkStages.Chainer chainer;
+
+  /**
+   * Private constructor backing the builder. Any unspecified argument takes its default.
    *
    * @param workerExecutorService The ExecutorService used for executing the actual tasks submitted
-   *     to the ConseqExecutor.
+   *     to the ConseqExecutor. Defaults to per-task virtual threads.
+   * @param inFlightLimit caps the total number of pending tasks across all sequence keys, and can
+   *     be shared with other executors. Defaults to no limit.
+   * @param uncaughtExceptionHandler reports the failures of commands executed by {@link
+   *     #executeAndForget(Runnable, Object)}. Defaults to the handler of the worker thread that
+   *     runs the failed command.
+   * @param metrics notified of the task wait and run times, and active sequence keys. Queue depths
+   *     are not reported, as the chained work stages of a key keep no count. Defaults to {@link
+   *     ConseqMetrics#noop()}.
+   * @param hotKeySketch tracks the most frequently submitted sequence keys, reported together with
+   *     their backlogs by {@link #hotKeys()}. Defaults to no tracking.
+   * @param failurePolicy decides whether the pending tasks of a sequence key still run after a
+   *     task of the key fails. Applies to the tasks whose outcome is tracked by a future, not to
+   *     those executed and forgotten, nor to those cancelled or skipped past their deadline.
+   *     Defaults to {@link FailurePolicy#SKIP}.
+   * @param deadLetterSink receives each failed task whose outcome is tracked by a future, under
+   *     either failure policy. A task skipped past its deadline has not failed. Defaults to none.
+   * @param perKeyRateLimit limits the rate at which the tasks of each sequence key are dispatched.
+   *     A throttled key waits for its next permit without holding a worker thread. Defaults to no
+   *     limit.
+   * @param globalRateLimit limits the rate at which the tasks of all sequence keys combined are
+   *     dispatched. Defaults to no limit.
+   * @param adaptiveConcurrency limits the number of tasks running at once, i.e. of the sequence
+   *     keys concurrently dispatched, adapting the limit to the observed task run times. A task
+   *     beyond the limit waits without holding a worker thread. Can be shared with other executors.
+   *     Defaults to no limit other than that of the worker thread pool.
+   * @param keyAffinity whether the next task of a sequence key preferably runs on the worker thread
+   *     that ran the previous task of the key, rather than on any worker thread that is free, for
+   *     the cache locality of per-key state. Requires a {@link ForkJoinPool} worker thread pool,
+   *     e.g. that of {@link #instance(int)}. The next task is handed to the pool instead whenever
+   *     the previous task leaves its key waiting: on an async task's stage still pending, a rate
+   *     limit permit not yet due, an adaptive concurrency permit not yet available, or a halt
+   *     under {@link FailurePolicy#HALT}. Defaults to false.
    */
-  private ConseqExecutor(ExecutorService workerExecutorService) {
-    this.workerExecutorService = workerExecutorService;
+  @Builder
+  private ConseqExecutor(
+      ExecutorService workerExecutorService,
+      InFlightLimit inFlightLimit,
+      Thread.UncaughtExceptionHandler uncaughtExceptionHandler,
+      ConseqMetrics metrics,
+      HotKeySketch hotKeySketch,
+      FailurePolicy failurePolicy,
+      Consumer<DeadLetter> deadLetterSink,
+      RateLimit perKeyRateLimit,
+      RateLimit globalRateLimit,
+      AdaptiveConcurrency adaptiveConcurrency,
+      boolean keyAffinity) {
+    this.workerExecutorService = workerExecutorService == null
+        ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("conseq-worker-", 1).factory())
+        : workerExecutorService;
+    this.inFlightLimit = inFlightLimit;
+    this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+    this.metrics = metrics == null ? ConseqMetrics.noop() : metrics;
+    this.metered = this.metrics != ConseqMetrics.noop();
+    this.longKeyedExecutionQueues = new LongKeyedExecutionQueues(this.metrics);
+    this.hotKeySketch = hotKeySketch;
+    this.backlogs = hotKeySketch == null ? null : new ConcurrentHashMap<>();
+    this.failurePolicy = failurePolicy == null ? FailurePolicy.SKIP : failurePolicy;
+    this.deadLetterSink = deadLetterSink;
+    this.perKeyRateLimit = perKeyRateLimit;
+    this.keyBuckets = perKeyRateLimit == null ? null : new ConcurrentHashMap<>();
+    this.globalBucket =
+        globalRateLimit == null ? null : globalRateLimit.newBucket(System.nanoTime());
+    this.adaptiveConcurrency = adaptiveConcurrency;
+    if (keyAffinity && !(this.workerExecutorService instanceof ForkJoinPool)) {
+      throw new IllegalArgumentException(
+          "expecting ForkJoinPool worker executor service for key affinity, but given: "
+              + this.workerExecutorService);
+    }
+    this.chainer = keyAffinity
+        ? new KeyAffinity((ForkJoinPool) this.workerExecutorService)
+        : WorkStages.on(this.workerExecutorService);
   }
 
   /**
@@ -82,8 +230,7 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    * @return conseq executor
    */
   public static @Nonnull ConseqExecutor instance() {
-    return instance(Executors.newThreadPerTaskExecutor(
-        Thread.ofVirtual().name("conseq-worker-", 1).factory()));
+    return builder().build();
   }
 
   /**
@@ -106,7 +253,24 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    * @return instance of {@link ConseqExecutor}
    */
   public static @Nonnull ConseqExecutor instance(ExecutorService workerExecutorService) {
-    return new ConseqExecutor(workerExecutorService);
+    return builder().workerExecutorService(workerExecutorService).build();
+  }
+
+  /**
+   * Returned executor refuses tasks submitted while the specified in-flight limit has no permit
+   * available.
+   *
+   * @param workerExecutorService ExecutorService that backs the async operations of worker threads
+   * @param inFlightLimit caps the total number of pending tasks across all sequence keys, and can
+   *     be shared with other executors
+   * @return instance of {@link ConseqExecutor}
+   */
+  public static @Nonnull ConseqExecutor instance(
+      ExecutorService workerExecutorService, @NonNull InFlightLimit inFlightLimit) {
+    return builder()
+        .workerExecutorService(workerExecutorService)
+        .inFlightLimit(inFlightLimit)
+        .build();
   }
 
   /**
@@ -133,41 +297,821 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    * of the work tasks/stages ensures the sequential-ness of task execution under the same sequence
    * key.
    *
-   * <p>A separate administrative task/stage is triggered to run at the completion of each work
-   * task/stage. Under the same sequence key, this admin task will locate the executor entry in the
-   * map, and remove the entry if its work stage is complete. Otherwise, if the work stage is not
-   * complete, the admin task does nothing; the incomplete work stage stays in the map under the
-   * same sequence key, ready to be trailed by the next work stage. This administration ensures that
-   * every executor entry ever put on the map is eventually cleaned up and removed as long as every
-   * work stage runs to complete. Although always chained after the completion of a work stage, the
-   * admin task/stage is never added to the task work queue on the executor map and has no effect on
-   * the overall sequential-ness of the work stage executions.
+   * <p>A cleanup action is triggered at the completion of each work task/stage, run inline by the
+   * same thread that completes the work stage. Under the same sequence key, this action removes the
+   * executor entry from the map only if the entry's value is still the very work stage that just
+   * completed, i.e. the completed stage is still the tail of the key's task queue. Otherwise, a
+   * subsequent work stage has since been chained as the new tail, and the cleanup action does
+   * nothing; the cleanup action of that subsequent stage will take care of the entry in turn. This
+   * ensures that every executor entry ever put on the map is eventually cleaned up and removed as
+   * long as every work stage runs to complete, without an extra thread hop per task. Although
+   * always chained after the completion of a work stage, the cleanup action is never added to the
+   * task work queue on the executor map and has no effect on the overall sequential-ness of the
+   * work stage executions.
+   *
+   * <p>If an {@link InFlightLimit} is configured, each task holds a permit of the limit from
+   * submission to completion; a task submitted while no permit is available is rejected.
    *
    * @param task the task to be called asynchronously with proper sequence
    * @param sequenceKey the key under which this task should be sequenced
    * @return future result of the task, not downcast-able from the basic {@link Future} interface.
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
    */
   @Override
-  @SuppressWarnings("unchecked")
   public <T> @NonNull Future<T> submit(Callable<T> task, Object sequenceKey) {
-    CompletableFuture<?> taskCompletable = executionQueues.compute(
-        sequenceKey,
-        (k, vCompletable) -> (vCompletable == null)
-            ? CompletableFuture.supplyAsync(() -> callUnchecked(task), workerExecutorService)
-            : vCompletable.handleAsync((r, e) -> callUnchecked(task), workerExecutorService));
-    CompletableFuture<?> copy = taskCompletable.copy();
-    taskCompletable.whenCompleteAsync(
-        (r, e) -> executionQueues.computeIfPresent(
-            sequenceKey, (k, vCompletable) -> vCompletable.isDone() ? null : vCompletable),
-        adminExecutorService);
-    return (Future<T>) new DefensiveFuture<>(copy);
+    acquirePermit();
+    return submitPermitted(task, sequenceKey);
+  }
+
+  /**
+   * Returns empty if the configured in-flight limit has no permit available; otherwise, the same as
+   * {@link #submit(Callable, Object)}. As the pending tasks are not counted per key, the key's own
+   * backlog never makes this return empty, only the backlog of all keys combined does.
+   */
+  @Override
+  public <T> @NonNull Optional<Future<T>> trySubmit(Callable<T> task, Object sequenceKey) {
+    return tryAcquirePermit()
+        ? Optional.of(submitPermitted(task, sequenceKey))
+        : Optional.empty();
+  }
+
+  /**
+   * Chains the task the same way as {@link #submit(Callable, Object)} does, but returns a minimal
+   * stage view of the task's outcome, which supports no completion or cancellation.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public <T> @NonNull CompletionStage<T> submitStage(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    acquirePermit();
+    SubmittedTask<T> submitted = new SubmittedTask<>(task, inFlightLimit);
+    chainPermitted(submitted, sequenceKey);
+    return submitted.minimalCompletionStage();
+  }
+
+  /**
+   * Chains the task the same way as {@link #submit(Callable, Object)} does, then supersedes the
+   * latest conflating task of the same key unless it has already started. The work stage of a
+   * superseded task still takes its turn in the chain, but skips the task.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public <T> @NonNull Future<T> submitConflating(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    acquirePermit();
+    Object conflationKey = normalKeyOf(sequenceKey);
+    Conflation<T> conflation = new Conflation<>(task, conflationKey);
+    chainPermitted(conflation, sequenceKey);
+    Conflation<?> superseded = conflations.put(conflationKey, conflation);
+    if (superseded != null) {
+      superseded.supersede();
+    }
+    if (conflation.isDone()) {
+      conflations.remove(conflationKey, conflation);
+    }
+    return new DefensiveFuture<>(conflation);
+  }
+
+  /**
+   * Chains the task the same way as {@link #submit(Callable, Object)} does, except that the work
+   * stage of the task completes only when the stage supplied by the task completes. The worker
+   * thread is released as soon as the task has supplied its stage, and the next task of the same
+   * key is dispatched to the worker thread pool once the supplied stage completes.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public <T> @NonNull Future<T> submitAsync(
+      @NonNull Supplier<? extends CompletionStage<T>> task, @NonNull Object sequenceKey) {
+    acquirePermit();
+    AsyncSubmittedTask<T> submitted = new AsyncSubmittedTask<>(task);
+    chainPermitted(submitted, sequenceKey);
+    return new DefensiveFuture<>(submitted);
+  }
+
+  /**
+   * Same as {@link #submitAsync(Supplier, Object)} with the attempts of the task as the async
+   * task: the key is held in order until the last attempt, but no worker thread is held during the
+   * backoff between attempts. Retries run on the worker thread pool.
+   */
+  @Override
+  public <T> @NonNull Future<T> submit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, @NonNull RetryPolicy retryPolicy) {
+    return submitAsync(() -> retryPolicy.attempting(task, workerExecutorService), sequenceKey);
+  }
+
+  /**
+   * Chains the command the same way as {@link #submit(Callable, Object)} does, but without the
+   * future and its defensive view that back the returned future of a submit. This saves only those
+   * two: the command is still adapted into a callable, and chained as a work stage with a cleanup
+   * dependent, as any task is. For at most one allocation per command, use the {@link
+   * ConseqQueueExecutor}. A failure of the command is reported to the configured uncaught exception
+   * handler, by default that of the worker thread that runs it.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public void executeAndForget(@NonNull Runnable command, @NonNull Object sequenceKey) {
+    acquirePermit();
+    chainPermitted(
+        UncaughtExceptions.callableReporting(command, uncaughtExceptionHandler), sequenceKey);
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, except that the key is held in a primitive
+   * open-addressing table instead of the hash map, without boxing.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public <T> @NonNull Future<T> submit(@NonNull Callable<T> task, long sequenceKey) {
+    acquirePermit();
+    return submitPermitted(task, sequenceKey);
+  }
+
+  /**
+   * Returns empty if the configured in-flight limit has no permit available; otherwise, the same as
+   * {@link #submit(Callable, long)}. Like {@link #trySubmit(Callable, Object)}, bounded by the
+   * backlog of all keys combined, not per key.
+   */
+  @Override
+  public <T> @NonNull Optional<Future<T>> trySubmit(@NonNull Callable<T> task, long sequenceKey) {
+    return tryAcquirePermit()
+        ? Optional.of(submitPermitted(task, sequenceKey))
+        : Optional.empty();
+  }
+
+  /**
+   * Same as {@link #executeAndForget(Runnable, Object)}, except that the key is not boxed.
+   *
+   * @throws RejectedExecutionException if the configured in-flight limit has no permit available
+   */
+  @Override
+  public void executeAndForget(@NonNull Runnable command, long sequenceKey) {
+    acquirePermit();
+    chainPermitted(
+        UncaughtExceptions.callableReporting(command, uncaughtExceptionHandler), sequenceKey);
+  }
+
+  /**
+   * Awaits the current tail work stage of the key, without submitting anything: as the stages of a
+   * key run in sequence, the tail completes only after all the earlier stages of the key. The tasks
+   * parked behind a failure under {@link FailurePolicy#HALT} are awaited until resumed or
+   * discarded.
+   */
+  @Override
+  public @NonNull CompletionStage<Void> flush(@NonNull Object sequenceKey) {
+    CompletableFuture<?> tail = sequenceKey instanceof Long || sequenceKey instanceof Integer
+        ? longKeyedExecutionQueues.tail(((Number) sequenceKey).longValue())
+        : executionQueues.get(sequenceKey);
+    return tail == null
+        ? CompletableFuture.completedStage(null)
+        : tail.handle((r, e) -> (Void) null).minimalCompletionStage();
+  }
+
+  /**
+   * Awaits the current tail work stages of all active keys, without submitting anything.
+   *
+   * @see #flush(Object)
+   */
+  @Override
+  public @NonNull CompletionStage<Void> flushAll() {
+    List<CompletableFuture<?>> tails = new ArrayList<>(executionQueues.values());
+    longKeyedExecutionQueues.collectTails(tails);
+    CompletableFuture<?>[] flushes = new CompletableFuture<?>[tails.size()];
+    for (int i = 0; i < flushes.length; i++) {
+      flushes[i] = tails.get(i).handle((r, e) -> null);
+    }
+    return CompletableFuture.allOf(flushes).minimalCompletionStage();
+  }
+
+  private void acquirePermit() {
+    if (!tryAcquirePermit()) {
+      throw new RejectedExecutionException(
+          "reached in-flight limit " + inFlightLimit.maxInFlight());
+    }
+  }
+
+  private boolean tryAcquirePermit() {
+    return inFlightLimit == null || inFlightLimit.tryAcquire();
+  }
+
+  private void releasePermit() {
+    if (inFlightLimit != null) {
+      inFlightLimit.release();
+    }
+  }
+
+  /**
+   * Releases the permit of the task, unless a cancellation before the task started has already
+   * released it.
+   */
+  private void releasePermitOf(Callable<?> task) {
+    if (!(task instanceof SubmittedTask<?> submitted) || submitted.takePermit()) {
+      releasePermit();
+    }
+  }
+
+  private <T> Future<T> submitPermitted(Callable<T> task, Object sequenceKey) {
+    SubmittedTask<T> submitted = new SubmittedTask<>(task, inFlightLimit);
+    chainPermitted(submitted, sequenceKey);
+    return new DefensiveFuture<>(submitted);
+  }
+
+  private <T> Future<T> submitPermitted(Callable<T> task, long sequenceKey) {
+    SubmittedTask<T> submitted = new SubmittedTask<>(task, inFlightLimit);
+    chainPermitted(submitted, sequenceKey);
+    return new DefensiveFuture<>(submitted);
+  }
+
+  /**
+   * Chains a work stage calling the task. The outcome of the stage is only used to clean up after
+   * it, as the task reports its own outcome, if tracked. The stage of an async task completes once
+   * the stage returned by the task does.
+   */
+  private void chainPermitted(Callable<?> task, Object sequenceKey) {
+    if (sequenceKey instanceof Long || sequenceKey instanceof Integer) {
+      chainPermitted(task, ((Number) sequenceKey).longValue());
+      return;
+    }
+    Callable<?> work = workOf(task, sequenceKey);
+    boolean async = awaitsStage(task);
+    boolean tracked = hotKeySketch != null && trackSubmitted(sequenceKey);
+    CompletableFuture<?> taskCompletable;
+    try {
+      taskCompletable = executionQueues.compute(sequenceKey, (k, vCompletable) -> {
+        if (vCompletable != null) {
+          return chainer.next(vCompletable, work, async);
+        }
+        CompletableFuture<?> first = chainer.first(work, async);
+        metrics.keyActivated();
+        return first;
+      });
+    } catch (RuntimeException e) {
+      if (tracked) {
+        trackCompleted(sequenceKey);
+      }
+      releasePermitOf(task);
+      throw e;
+    }
+    taskCompletable.whenComplete((r, e) -> {
+      if (executionQueues.remove(sequenceKey, taskCompletable)) {
+        metrics.keyRetired();
+        if (!halts.isEmpty()) {
+          liftDiscarding(sequenceKey);
+        }
+        if (keyBuckets != null) {
+          sweepBucket(sequenceKey);
+        }
+      }
+      if (tracked) {
+        trackCompleted(sequenceKey);
+      }
+      releasePermitOf(task);
+    });
+  }
+
+  private void chainPermitted(Callable<?> task, long sequenceKey) {
+    Callable<?> work = isGuarded() || isThrottled() || adaptiveConcurrency != null
+        ? workOf(task, sequenceKey)
+        : metered ? metered(task) : task;
+    boolean async = awaitsStage(task);
+    boolean tracked = hotKeySketch != null && trackSubmitted(sequenceKey);
+    CompletableFuture<?> taskCompletable;
+    try {
+      taskCompletable = longKeyedExecutionQueues.chain(sequenceKey, work, async, chainer);
+    } catch (RuntimeException e) {
+      if (tracked) {
+        trackCompleted(sequenceKey);
+      }
+      releasePermitOf(task);
+      throw e;
+    }
+    taskCompletable.whenComplete((r, e) -> {
+      if (longKeyedExecutionQueues.remove(sequenceKey, taskCompletable)) {
+        if (!halts.isEmpty()) {
+          liftDiscarding(sequenceKey);
+        }
+        if (keyBuckets != null) {
+          sweepBucket(sequenceKey);
+        }
+      }
+      if (tracked) {
+        trackCompleted(sequenceKey);
+      }
+      releasePermitOf(task);
+    });
+  }
+
+  /**
+   * @return true if the work of a tracked task needs guarding per the failure policy or the
+   *     dead-letter sink
+   */
+  private boolean isGuarded() {
+    return failurePolicy == FailurePolicy.HALT || deadLetterSink != null;
+  }
+
+  /**
+   * Guards the work of a tracked task. A task parked behind a failure of its key is cancelled
+   * instead of run if the parked tasks are discarded before it starts; a task submitted after the
+   * discard runs, and lifts the halt. A failed task is sent to the dead-letter sink and, under
+   * {@link FailurePolicy#HALT}, the stage returned by the guarded work stays pending until the key
+   * is resumed or its parked tasks are discarded, so that the parked tasks hold no worker thread.
+   *
+   * @param work the work calling the task
+   * @param outcome the future of the task
+   * @param async whether the work returns a stage to wait for, e.g. the stage supplied by an async
+   *     task
+   * @param haltKey the sequence key, boxed if primitive
+   */
+  private Callable<CompletionStage<Void>> guarded(
+      Callable<?> work, CompletableFuture<?> outcome, boolean async, Object haltKey) {
+    Halt seen = halts.isEmpty() ? null : halts.get(haltKey);
+    Halt exemptFrom = seen != null && seen.discarding ? seen : null;
+    return () -> {
+      Halt halt = halts.isEmpty() ? null : halts.get(haltKey);
+      if (halt != null && halt.discarding) {
+        if (halt != exemptFrom) {
+          outcome.cancel(false);
+          work.call();
+          return SETTLED;
+        }
+        halts.remove(haltKey, halt);
+      }
+      Object returned = work.call();
+      if (async) {
+        return ((CompletionStage<?>) returned)
+            .handle((r, e) -> settle(haltKey, e != null ? e : failureOf(outcome)))
+            .thenCompose(Function.identity());
+      }
+      return settle(haltKey, failureOf(outcome));
+    };
+  }
+
+  /**
+   * @param outcome the future of a task
+   * @return the failure of the task, or null if the task has not failed, e.g. if cancelled
+   */
+  private static Throwable failureOf(CompletableFuture<?> outcome) {
+    return outcome.isCompletedExceptionally() && !outcome.isCancelled()
+        ? outcome.exceptionNow()
+        : null;
+  }
+
+  /**
+   * @param haltKey the sequence key of the task, boxed if primitive
+   * @param failure the failure of the task, if any. Neither a cancellation nor an expiry past the
+   *     task's deadline is a failure, as the task never ran.
+   * @return the stage for the work of the task to await: settled unless the key halts on the
+   *     failure, in which case the stage is released when the key is resumed or its parked tasks
+   *     are discarded
+   */
+  private CompletionStage<Void> settle(Object haltKey, Throwable failure) {
+    if (failure == null || failure instanceof CancellationException || Deadline.isExpiry(failure)) {
+      return SETTLED;
+    }
+    Halt halt = null;
+    if (failurePolicy == FailurePolicy.HALT) {
+      halt = new Halt();
+      halts.put(haltKey, halt);
+    }
+    if (deadLetterSink != null) {
+      Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+          ? failure.getCause()
+          : failure;
+      try {
+        deadLetterSink.accept(new DeadLetter(haltKey, cause));
+      } catch (Throwable t) {
+        UncaughtExceptions.report(t, null);
+      }
+    }
+    return halt == null ? SETTLED : halt.released;
+  }
+
+  /** Lifts the halt of a retired key if the halt is discarding, as no parked task is left. */
+  private void liftDiscarding(Object haltKey) {
+    halts.computeIfPresent(haltKey, (k, halt) -> halt.discarding ? null : halt);
+  }
+
+  private boolean isThrottled() {
+    return perKeyRateLimit != null || globalBucket != null;
+  }
+
+  /**
+   * Throttles the work per the rate limits when its turn in the key's sequence comes, rather than
+   * at submission. If a permit is not yet due, the worker thread is released, and the work is
+   * handed back to the worker thread pool once the permit is due.
+   *
+   * @param work the work calling the task
+   * @param async whether the work returns a stage to wait for
+   * @param bucketKey the sequence key, boxed if primitive
+   */
+  private Callable<CompletionStage<?>> throttled(
+      Callable<?> work, boolean async, Object bucketKey) {
+    return () -> {
+      long nowNanos = System.nanoTime();
+      long waitNanos = 0;
+      if (perKeyRateLimit != null) {
+        // reserved within the map's compute, so that a concurrent sweep cannot drop the bucket
+        // between its fullness check and the reservation
+        long[] keyWaitNanos = new long[1];
+        keyBuckets.compute(bucketKey, (k, bucket) -> {
+          RateLimit.TokenBucket reserving =
+              bucket == null ? perKeyRateLimit.newBucket(nowNanos) : bucket;
+          keyWaitNanos[0] = reserving.reserve(nowNanos);
+          return reserving;
+        });
+        waitNanos = keyWaitNanos[0];
+      }
+      if (globalBucket != null) {
+        waitNanos = Math.max(waitNanos, globalBucket.reserve(nowNanos));
+      }
+      return WorkStages.delayed(work, async, waitNanos, workerExecutorService);
+    };
+  }
+
+  /**
+   * Gates the work by the adaptive concurrency limit when its turn in the key's sequence comes. If
+   * the limit is reached, the worker thread is released, and the work is handed back to the worker
+   * thread pool once a running task completes. The run time of the work, until the stage it
+   * returns completes if async, is sampled into the limit.
+   *
+   * @param work the work calling the task
+   * @param async whether the work returns a stage to wait for
+   */
+  private Callable<CompletionStage<?>> gated(Callable<?> work, boolean async) {
+    return () -> {
+      CompletableFuture<Void> permit = adaptiveConcurrency.acquire();
+      if (permit.isDone()) {
+        return runPermitted(work, async);
+      }
+      CompletableFuture<Object> handedOff = new CompletableFuture<>();
+      permit.thenRun(() -> WorkStages.handOff(
+          () -> runPermitted(work, async), handedOff, workerExecutorService));
+      return handedOff
+          .whenComplete((r, e) -> {
+            if (e != null) {
+              adaptiveConcurrency.release(-1);
+            }
+          })
+          .thenCompose(ran -> (CompletionStage<?>) ran);
+    };
+  }
+
+  private CompletionStage<?> runPermitted(Callable<?> work, boolean async) {
+    long startNanos = System.nanoTime();
+    return WorkStages.called(work, async)
+        .whenComplete((r, e) -> adaptiveConcurrency.release(System.nanoTime() - startNanos));
+  }
+
+  /**
+   * Drops the token bucket of a retired key once the bucket is full again, as a full bucket is no
+   * different from the new one the key gets on its next dispatch. The check and the removal are
+   * one atomic step of the map, as are the creation and the reservation of a dispatch, so that no
+   * reservation is lost to a concurrent sweep.
+   */
+  private void sweepBucket(Object bucketKey) {
+    RateLimit.TokenBucket bucket = keyBuckets.computeIfPresent(
+        bucketKey, (k, b) -> b.nanosUntilFull(System.nanoTime()) == 0 ? null : b);
+    if (bucket != null && bucket.startSweeping()) {
+      long untilFullNanos = Math.max(1, bucket.nanosUntilFull(System.nanoTime()));
+      CompletableFuture.delayedExecutor(untilFullNanos, TimeUnit.NANOSECONDS, Runnable::run)
+          .execute(() -> {
+            bucket.stopSweeping();
+            sweepBucket(bucketKey);
+          });
+    }
+  }
+
+  /**
+   * @param sequenceKey the sequence key to check
+   * @return true if the key is halted by a failure under {@link FailurePolicy#HALT}, and neither
+   *     resumed nor discarding its parked tasks yet
+   */
+  public boolean isHalted(@NonNull Object sequenceKey) {
+    Halt halt = halts.get(normalKeyOf(sequenceKey));
+    return halt != null && !halt.discarding;
+  }
+
+  /**
+   * Resumes a halted sequence key: its parked tasks run in sequence as usual.
+   *
+   * @param sequenceKey the halted sequence key
+   * @return true if the key is resumed; false if the key is not halted
+   */
+  public boolean resume(@NonNull Object sequenceKey) {
+    Object haltKey = normalKeyOf(sequenceKey);
+    Halt halt = halts.get(haltKey);
+    if (halt == null || halt.discarding || !halts.remove(haltKey, halt)) {
+      return false;
+    }
+    return halt.released.complete(null);
+  }
+
+  /**
+   * Discards the parked tasks of a halted sequence key: each task submitted before this call is
+   * cancelled instead of run, while tasks submitted after this call run as usual.
+   *
+   * @param sequenceKey the halted sequence key
+   * @return true if the parked tasks are discarded; false if the key is not halted
+   */
+  public boolean discardParked(@NonNull Object sequenceKey) {
+    Halt halt = halts.get(normalKeyOf(sequenceKey));
+    if (halt == null || halt.discarding) {
+      return false;
+    }
+    halt.discarding = true;
+    return halt.released.complete(null);
+  }
+
+  /**
+   * {@link Integer} keys are sequenced as long keys, and thus halted and conflated under their
+   * {@link Long}.
+   */
+  private static Object normalKeyOf(Object sequenceKey) {
+    return sequenceKey instanceof Integer i ? Long.valueOf(i) : sequenceKey;
+  }
+
+  /**
+   * @param task the task to chain
+   * @param sequenceKey the key of the task, boxed if primitive
+   * @return the work calling the task, metered, gated, guarded, and throttled as configured. The
+   *     gate is inside the guard, so that an adaptive concurrency permit covers only the run of the
+   *     task, never the halt that a failure of the task may lead to.
+   */
+  private Callable<?> workOf(Callable<?> task, Object sequenceKey) {
+    boolean async = task instanceof AsyncSubmittedTask;
+    Callable<?> work = metered ? metered(task) : task;
+    if (adaptiveConcurrency != null) {
+      work = gated(work, async);
+      async = true;
+    }
+    if (isGuarded() && task instanceof CompletableFuture<?> outcome) {
+      work = guarded(work, outcome, async, sequenceKey);
+    }
+    if (isThrottled()) {
+      work = throttled(work, async, sequenceKey);
+    }
+    return work;
+  }
+
+  /**
+   * @param task the task to chain
+   * @return true if the work of the task returns a stage for its work stage to wait for
+   */
+  private boolean awaitsStage(Callable<?> task) {
+    return task instanceof AsyncSubmittedTask
+        || failurePolicy == FailurePolicy.HALT && task instanceof CompletableFuture
+        || adaptiveConcurrency != null
+        || isThrottled();
+  }
+
+  /**
+   * Records the key in the sketch and, only if the key is hot, counts the task into the backlog of
+   * the key before the task is chained, so that the count never lags behind the task's completion.
+   * The bulk of the keys, not hot, thus cost no update of the backlog counts.
+   *
+   * @return true if the task is counted, to be uncounted once it completes
+   */
+  private boolean trackSubmitted(Object sequenceKey) {
+    if (!hotKeySketch.record(sequenceKey)) {
+      return false;
+    }
+    backlogs.merge(sequenceKey, 1, Integer::sum);
+    return true;
+  }
+
+  /** Same as {@link #trackSubmitted(Object)}, except that the key is only boxed if it is hot. */
+  private boolean trackSubmitted(long sequenceKey) {
+    if (!hotKeySketch.record(sequenceKey)) {
+      return false;
+    }
+    backlogs.merge(sequenceKey, 1, Integer::sum);
+    return true;
+  }
+
+  private void trackCompleted(Object sequenceKey) {
+    backlogs.computeIfPresent(sequenceKey, (k, backlog) -> backlog == 1 ? null : backlog - 1);
+  }
+
+  /**
+   * The backlog of a hot key counts the tasks pending among those submitted while the key was hot;
+   * tasks submitted before the key turned hot are not counted.
+   *
+   * @return the current hot keys, hottest first, each with the number of its tasks pending; empty
+   *     if no {@link HotKeySketch} is configured
+   */
+  public @Nonnull List<HotKey> hotKeys() {
+    return hotKeySketch == null
+        ? List.of()
+        : hotKeySketch.topKeys(sequenceKey -> backlogs.getOrDefault(sequenceKey, 0));
+  }
+
+  /**
+   * Same as the task nodes of the {@link ConseqQueueExecutor}, a task is reported upon its
+   * completion, and only if it ran: a task skipped past its {@link Deadline} is reported neither as
+   * started nor as completed.
+   *
+   * @return the task wrapped to report its wait time since now, and its run time, to the metrics
+   */
+  private <T> Callable<T> metered(Callable<T> task) {
+    long queuedNanos = System.nanoTime();
+    return () -> {
+      long startNanos = System.nanoTime();
+      try {
+        return task.call();
+      } finally {
+        if (!isExpired(task)) {
+          metrics.taskStarted(startNanos - queuedNanos);
+          metrics.taskCompleted(System.nanoTime() - startNanos);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return true if the task, being its own future, completed with the expiry of its deadline
+   */
+  private static boolean isExpired(Callable<?> task) {
+    return task instanceof CompletableFuture<?> outcome && Deadline.isExpiry(failureOf(outcome));
+  }
+
+  /**
+   * A submitted task, being its own future rather than completed through its work stage. The work
+   * stage of a task cancelled before it starts skips the task instead of calling it; cancelling
+   * with interruption while the task runs interrupts the worker thread.
+   *
+   * <p>The in-flight limit permit of the task is released once, by whichever comes first: a
+   * cancellation before the task starts, so that the cancelled task no longer counts against the
+   * limit while its work stage waits for its turn, or the completion of the work stage.
+   *
+   * @param <T> the type of the task's result
+   */
+  private static class SubmittedTask<T> extends InterruptibleFuture<T>
+      implements Callable<Object> {
+    private static final VarHandle PERMIT;
+
+    static {
+      try {
+        PERMIT = MethodHandles.lookup().findVarHandle(SubmittedTask.class, "permit", int.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    private static final int PERMIT_HELD = 0;
+    private static final int PERMIT_HELD_BY_RUN = 1;
+    private static final int PERMIT_RELEASED = 2;
+
+    private Callable<T> task;
+
+    /** Permit of the task from the in-flight limit, if not null */
+    private final InFlightLimit inFlightLimit;
+
+    @SuppressWarnings("unused")
+    private volatile int permit;
+
+    SubmittedTask(Callable<T> task, InFlightLimit inFlightLimit) {
+      this.task = task;
+      this.inFlightLimit = inFlightLimit;
+    }
+
+    @Override
+    public Object call() {
+      Callable<T> callable = task;
+      task = null;
+      PERMIT.compareAndSet(this, PERMIT_HELD, PERMIT_HELD_BY_RUN);
+      callTask(callable);
+      return null;
+    }
+
+    /** Releases the permit right away if cancelled before the task starts. */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled
+          && inFlightLimit != null
+          && PERMIT.compareAndSet(this, PERMIT_HELD, PERMIT_RELEASED)) {
+        inFlightLimit.release();
+      }
+      return cancelled;
+    }
+
+    /**
+     * @return true if the permit is still to be released by the caller, i.e. not released by a
+     *     cancellation before the task started
+     */
+    boolean takePermit() {
+      return (int) PERMIT.getAndSet(this, PERMIT_RELEASED) != PERMIT_RELEASED;
+    }
+  }
+
+  /**
+   * A submitted async task, completed by the stage the task supplies. The task is skipped if
+   * cancelled before it starts; once supplied, the stage is never interrupted, but a cancellation
+   * also cancels the stage, so that the key goes on without waiting the stage out.
+   *
+   * @param <T> the type of the task's result
+   */
+  private static final class AsyncSubmittedTask<T> extends CompletableFuture<T>
+      implements Callable<CompletionStage<?>> {
+    private Supplier<? extends CompletionStage<T>> task;
+
+    /** Stage supplied by the task, until it completes */
+    private volatile CompletionStage<T> supplied;
+
+    AsyncSubmittedTask(Supplier<? extends CompletionStage<T>> task) {
+      this.task = task;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      CompletionStage<T> stage = supplied;
+      if (cancelled && stage != null) {
+        WorkStages.cancelSupplied(stage);
+      }
+      return cancelled;
+    }
+
+    /**
+     * @return the stage supplied by the task, for the work stage to wait for
+     */
+    @Override
+    public CompletionStage<?> call() {
+      Supplier<? extends CompletionStage<T>> supplier = task;
+      task = null;
+      if (isDone()) {
+        return this;
+      }
+      try {
+        CompletionStage<T> stage =
+            Objects.requireNonNull(supplier.get(), "async task supplied null stage");
+        supplied = stage;
+        if (isCancelled()) {
+          WorkStages.cancelSupplied(stage);
+        }
+        stage.whenComplete((r, e) -> {
+          supplied = null;
+          if (e == null) {
+            complete(r);
+          } else {
+            completeExceptionally(e);
+          }
+        });
+        return stage;
+      } catch (Throwable t) {
+        completeExceptionally(t);
+        return this;
+      }
+    }
+  }
+
+  /** Halt of a sequence key, releasing the work stage of the failed task once lifted. */
+  private static final class Halt {
+    final CompletableFuture<Void> released = new CompletableFuture<>();
+
+    /** Set once the parked tasks are to be discarded rather than run */
+    volatile boolean discarding;
+  }
+
+  /**
+   * A conflating task, which can be cancelled as soon as it is superseded. Whichever comes first
+   * claims the task: its work stage starting, or a later conflating task superseding it.
+   *
+   * @param <T> the type of the task's result
+   */
+  private final class Conflation<T> extends SubmittedTask<T> {
+    private final Object sequenceKey;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    Conflation(Callable<T> task, Object sequenceKey) {
+      super(task, inFlightLimit);
+      this.sequenceKey = sequenceKey;
+    }
+
+    @Override
+    public Object call() {
+      if (claimed.compareAndSet(false, true)) {
+        super.call();
+      }
+      conflations.remove(sequenceKey, this);
+      return null;
+    }
+
+    void supersede() {
+      if (claimed.compareAndSet(false, true)) {
+        cancel(false);
+      }
+    }
   }
 
   /** Orderly shutdown, and awaits thread pool termination. */
   @Override
   public void close() {
     workerExecutorService.close();
-    adminExecutorService.close();
   }
 
   /**
@@ -176,27 +1120,23 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    * @return true if there are no pending tasks, false otherwise.
    */
   boolean noTaskPending() {
-    return executionQueues.isEmpty();
+    return executionQueues.isEmpty() && longKeyedExecutionQueues.isEmpty();
   }
 
-  /** Initiates an orderly shutdown of the workerExecutorService and adminExecutorService. */
+  /** Initiates an orderly shutdown of the workerExecutorService. */
   @Override
   public void terminate() {
-    new Thread(() -> {
-          workerExecutorService.close();
-          adminExecutorService.shutdown();
-        })
-        .start();
+    new Thread(workerExecutorService::close).start();
   }
 
   /**
-   * Checks if both the workerExecutorService and adminExecutorService have terminated.
+   * Checks if the workerExecutorService has terminated.
    *
-   * @return true if both services have terminated, false otherwise.
+   * @return true if the worker service has terminated, false otherwise.
    */
   @Override
   public boolean isTerminated() {
-    return workerExecutorService.isTerminated() && adminExecutorService.isTerminated();
+    return workerExecutorService.isTerminated();
   }
 
   /**
@@ -207,8 +1147,6 @@ public final class ConseqExecutor implements SequentialExecutor, Terminable, Aut
    */
   @Override
   public @Nonnull List<Runnable> terminateNow() {
-    List<Runnable> neverStartedTasks = workerExecutorService.shutdownNow();
-    adminExecutorService.shutdownNow();
-    return neverStartedTasks;
+    return workerExecutorService.shutdownNow();
   }
 }
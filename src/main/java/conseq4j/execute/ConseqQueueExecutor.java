@@ -0,0 +1,1473 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import coco4j.DefensiveFuture;
+import conseq4j.InFlightLimit;
+import conseq4j.OverflowPolicy;
+import conseq4j.Terminable;
+import conseq4j.metrics.ConseqMetrics;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Sequences the tasks of each sequence key through a lock-free, multi-producer/single-consumer task
+ * queue owned by the key.
+ *
+ * <p>Compared to {@link ConseqExecutor}, there is no per-task chaining of work stages and no
+ * administrative thread hop: A submitted task is appended to its key's queue, and a single drainer
+ * is dispatched to the worker thread pool only when the key transitions from idle to active. The
+ * drainer then runs the queued tasks of the key one after another, and retires the key's queue as
+ * soon as it finds no more tasks pending.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString
+public final class ConseqQueueExecutor implements SequentialExecutor, Terminable, AutoCloseable {
+  /** Higher priority of the next task first; among equal priorities, first in line first */
+  private static final Comparator<KeyQueue> READY_ORDER = (q1, q2) ->
+      q1.readyPriority != q2.readyPriority
+          ? Integer.compare(q2.readyPriority, q1.readyPriority)
+          : Long.compare(q1.readySequence, q2.readySequence);
+
+  /**
+   * Each entry represents the task queue of an active sequence key. An entry is removed by the
+   * queue's own drainer, at the moment the queue retires after running its last pending task.
+   */
+  private final ConcurrentMap<Object, KeyQueue> activeQueues = new ConcurrentHashMap<>();
+
+  /** Held as a field so that looking up a key queue does not allocate a capturing lambda */
+  @ToString.Exclude
+  private final Function<Object, KeyQueue> keyQueueFactory = KeyQueue::new;
+
+  /**
+   * The worker thread pool that runs the key queue drainers. Any thread from the pool can drain the
+   * queue of any sequence key; the pool capacity decides the overall max parallelism.
+   */
+  private final ExecutorService workerExecutorService;
+
+  /** Max number of tasks a drainer runs before yielding its worker thread */
+  private final int drainBatchSize;
+
+  /** Max nanoseconds a drainer keeps running tasks before yielding its worker thread */
+  private final long drainTimeBudgetNanos;
+
+  /** Service per round of deficit-round-robin scheduling across active keys, if not null */
+  private final FairQuantum fairQuantum;
+
+  /** Whether active keys are served in the priority order of their next tasks */
+  private final boolean prioritized;
+
+  /**
+   * Active key queues awaiting their next round, in round-robin order, or in priority order if
+   * prioritized; only used with a fair quantum. Each entry is matched by exactly one scheduling
+   * turn dispatched to the worker pool.
+   */
+  @ToString.Exclude
+  private final Queue<KeyQueue> readyQueues;
+
+  /** Tells the order in which key queues of equal priority got in line, if prioritized */
+  @ToString.Exclude
+  private final AtomicLong lineSequence;
+
+  /** Serves the key queue at the head of the ready queues for a round */
+  @ToString.Exclude
+  private final Runnable fairTurn = this::serveReadyQueue;
+
+  /** Max number of pending tasks per sequence key */
+  private final int perKeyCapacity;
+
+  /** Applies when a task is submitted to a sequence key that already has its capacity pending */
+  private final OverflowPolicy overflowPolicy;
+
+  /** Caps the total number of pending tasks across all sequence keys, if not null */
+  private final InFlightLimit inFlightLimit;
+
+  /** Reports failures of executed-and-forgotten commands, if not null */
+  private final Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
+
+  @ToString.Exclude
+  private final ConseqMetrics metrics;
+
+  /** Whether to take timings for the metrics, i.e. the metrics are not the no-op default */
+  private final boolean metered;
+
+  /** Set by {@link #terminateNow()} so that active drainers stop running their pending tasks. */
+  private volatile boolean halted;
+
+  /**
+   * Private constructor backing the builder. Any unspecified argument takes its default.
+   *
+   * @param workerExecutorService The ExecutorService used to run the key queue drainers. Defaults
+   *     to per-drainer virtual threads.
+   * @param drainBatchSize max number of queued tasks a drainer runs in one go before yielding its
+   *     worker thread back to the pool. Defaults to no limit, i.e. a drainer runs until its key's
+   *     queue is empty.
+   * @param drainTimeBudget max time a drainer keeps running queued tasks in one go before yielding
+   *     its worker thread back to the pool. Checked after each task, so a long task may overrun the
+   *     budget. Defaults to no limit.
+   * @param fairQuantum if set, active keys are served in deficit-round-robin order: each turn of
+   *     a worker thread serves the key that has waited the longest, for one quantum of tasks or run
+   *     time, and then puts the key, if still active, back in line behind all other active keys.
+   *     Cannot be combined with a drain batch size or time budget. Defaults to no fair scheduling,
+   *     i.e. the order of drainers is up to the worker thread pool.
+   * @param prioritized if true, each turn of a worker thread serves the active key whose next task
+   *     has the highest priority per {@link #submit(Callable, Object, int)}, for one fair quantum,
+   *     then puts the key back in line by the priority of its new next task. Keys of equal priority
+   *     take turns in round-robin order. Defaults to false; if true, the fair quantum defaults to
+   *     one task, so that a key never delays a more urgent one by more than a task.
+   * @param perKeyCapacity max number of pending tasks, i.e. tasks submitted but not yet completed,
+   *     per sequence key. Defaults to no limit.
+   * @param overflowPolicy applies to a task submitted when its sequence key already has the max
+   *     number of tasks pending. Defaults to {@link OverflowPolicy#REJECT}.
+   * @param inFlightLimit caps the total number of pending tasks across all sequence keys, and can
+   *     be shared with other executors. Defaults to no limit.
+   * @param uncaughtExceptionHandler reports the failures of commands executed by {@link
+   *     #executeAndForget(Runnable, Object)}. Defaults to the handler of the worker thread that
+   *     runs the failed command.
+   * @param metrics notified of the task queue depths, wait and run times, and active sequence keys.
+   *     Defaults to {@link ConseqMetrics#noop()}.
+   */
+  @Builder
+  private ConseqQueueExecutor(
+      ExecutorService workerExecutorService,
+      Integer drainBatchSize,
+      Duration drainTimeBudget,
+      FairQuantum fairQuantum,
+      boolean prioritized,
+      Integer perKeyCapacity,
+      OverflowPolicy overflowPolicy,
+      InFlightLimit inFlightLimit,
+      Thread.UncaughtExceptionHandler uncaughtExceptionHandler,
+      ConseqMetrics metrics) {
+    this.workerExecutorService = workerExecutorService == null
+        ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("conseq-worker-", 1).factory())
+        : workerExecutorService;
+    if (drainBatchSize != null && drainBatchSize <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive drain batch size, but given: " + drainBatchSize);
+    }
+    this.drainBatchSize = drainBatchSize == null ? Integer.MAX_VALUE : drainBatchSize;
+    if (drainTimeBudget != null && (drainTimeBudget.isNegative() || drainTimeBudget.isZero())) {
+      throw new IllegalArgumentException(
+          "expecting positive drain time budget, but given: " + drainTimeBudget);
+    }
+    this.drainTimeBudgetNanos =
+        drainTimeBudget == null ? Long.MAX_VALUE : Durations.toNanos(drainTimeBudget);
+    if ((fairQuantum != null || prioritized)
+        && (drainBatchSize != null || drainTimeBudget != null)) {
+      throw new IllegalArgumentException(
+          "expecting either fair/prioritized scheduling or drain batch size/time budget, "
+              + "but given both: " + fairQuantum);
+    }
+    this.fairQuantum = fairQuantum == null && prioritized ? FairQuantum.ofTasks(1) : fairQuantum;
+    this.prioritized = prioritized;
+    if (this.fairQuantum == null) {
+      this.readyQueues = null;
+    } else if (prioritized) {
+      this.readyQueues = new PriorityBlockingQueue<>(11, READY_ORDER);
+    } else {
+      this.readyQueues = new ConcurrentLinkedQueue<>();
+    }
+    this.lineSequence = prioritized ? new AtomicLong() : null;
+    if (perKeyCapacity != null && perKeyCapacity <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive per-key capacity, but given: " + perKeyCapacity);
+    }
+    this.perKeyCapacity = perKeyCapacity == null ? Integer.MAX_VALUE : perKeyCapacity;
+    this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.REJECT : overflowPolicy;
+    this.inFlightLimit = inFlightLimit;
+    this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+    this.metrics = metrics == null ? ConseqMetrics.noop() : metrics;
+    this.metered = this.metrics != ConseqMetrics.noop();
+  }
+
+  /**
+   * Default executor operates with per-drainer virtual threads.
+   *
+   * @return conseq queue executor
+   */
+  public static @Nonnull ConseqQueueExecutor instance() {
+    return builder().build();
+  }
+
+  /**
+   * Returned executor uses platform thread {@link ForkJoinPool} of specified concurrency to run the
+   * key queue drainers.
+   *
+   * @param concurrency max number of tasks that can be run in parallel by the returned executor
+   *     instance.
+   * @return conseq queue executor with given concurrency
+   */
+  public static @Nonnull ConseqQueueExecutor instance(int concurrency) {
+    return instance(Executors.newWorkStealingPool(concurrency));
+  }
+
+  /**
+   * User can directly supply the (fully customized) worker thread pool to run the key queue
+   * drainers of the returned executor.
+   *
+   * @param workerExecutorService ExecutorService that backs the async operations of worker threads
+   * @return instance of {@link ConseqQueueExecutor}
+   */
+  public static @Nonnull ConseqQueueExecutor instance(
+      @NonNull ExecutorService workerExecutorService) {
+    return builder().workerExecutorService(workerExecutorService).build();
+  }
+
+  /**
+   * Appends the task to the queue of its sequence key, creating the queue if the key is currently
+   * idle.
+   *
+   * <p>Each key queue keeps a count of its pending tasks. A submission first admits itself into the
+   * count, then links its task node to the tail of the queue. The submission that brings the count
+   * up from zero dispatches the queue's drainer to the worker thread pool; all others simply leave
+   * their task nodes for the already-active drainer to pick up. After running each task, the
+   * drainer atomically retires the queue if that task was the last one pending, and removes the
+   * queue from the active queue map. A submission that finds its queue retired will start over with
+   * a fresh queue of the same key, so no task is ever left behind in a retired queue.
+   *
+   * <p>A drainer runs the queued tasks of its key to completion, unless it reaches the configured
+   * drain batch size or time budget first. In that case, the drainer re-dispatches itself to the
+   * back of the worker thread pool, yielding its thread to other keys' drainers; the key stays
+   * active in the meantime, and keeps accepting new tasks in order. With a {@link FairQuantum}
+   * configured instead, active keys take turns in deficit-round-robin order, each turn serving one
+   * quantum of the key's tasks; if prioritized, the turns go to the keys in the priority order of
+   * their next tasks, per {@link #submit(Callable, Object, int)}.
+   *
+   * <p>If the sequence key already has its capacity of tasks pending, the configured {@link
+   * OverflowPolicy} applies: {@link OverflowPolicy#BLOCK} waits for room, {@link
+   * OverflowPolicy#REJECT} throws {@link RejectedExecutionException}, {@link
+   * OverflowPolicy#DROP_OLDEST} cancels the oldest task of the key not yet started, and {@link
+   * OverflowPolicy#DROP_NEWEST} returns a cancelled future of the submitted task.
+   *
+   * <p>If an {@link InFlightLimit} is configured and has no permit available, the task is rejected
+   * regardless of the overflow policy; no thread ever waits for a global permit.
+   *
+   * @param task the task to be called asynchronously with proper sequence
+   * @param sequenceKey the key under which this task should be sequenced
+   * @return future result of the task, not downcast-able from the basic {@link Future} interface.
+   * @throws RejectedExecutionException if the task cannot be accepted for execution
+   */
+  @Override
+  public <T> @Nonnull Future<T> submit(@NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    TaskNode<T> taskNode = new TaskNode<>(task);
+    enqueueOrReject(taskNode, sequenceKey);
+    return new DefensiveFuture<>(taskNode);
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, except that the outcome of the task node is returned
+   * as a minimal stage view, which supports no completion or cancellation.
+   */
+  @Override
+  public <T> @Nonnull CompletionStage<T> submitStage(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    TaskNode<T> taskNode = new TaskNode<>(task);
+    enqueueOrReject(taskNode, sequenceKey);
+    return taskNode.minimalCompletionStage();
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, with the task's priority deciding the turn of its
+   * key once the task is next in line for the key. The priority is ignored unless the executor is
+   * prioritized.
+   */
+  @Override
+  public <T> @Nonnull Future<T> submit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, int priority) {
+    TaskNode<T> taskNode = new TaskNode<>(task);
+    taskNode.priority = priority;
+    enqueueOrReject(taskNode, sequenceKey);
+    return new DefensiveFuture<>(taskNode);
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, except that the drainer completes the task
+   * exceptionally with a {@link TimeoutException}, instead of running it, if the task is taken past
+   * its deadline.
+   */
+  @Override
+  public <T> @Nonnull Future<T> submit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, @NonNull Duration deadline) {
+    TaskNode<T> taskNode = new ExpiringNode<>(task, new Deadline(deadline));
+    enqueueOrReject(taskNode, sequenceKey);
+    return new DefensiveFuture<>(taskNode);
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, except that the task, once admitted to the queue of
+   * its key, supersedes the latest conflating task of the queue unless that task has already been
+   * started by the drainer. A superseded task stays in the queue, counting towards the key's
+   * capacity, until the drainer skips it.
+   */
+  @Override
+  public <T> @Nonnull Future<T> submitConflating(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    TaskNode<T> taskNode = new ConflatingNode<>(task);
+    enqueueOrReject(taskNode, sequenceKey);
+    return new DefensiveFuture<>(taskNode);
+  }
+
+  /**
+   * Same as {@link #submit(Callable, Object)}, except that the task node completes with the stage
+   * supplied by the task. While the supplied stage is pending, the drainer suspends the key's queue
+   * and releases its worker thread; the key's next task is dispatched to the worker thread pool
+   * once the stage completes.
+   */
+  @Override
+  public <T> @Nonnull Future<T> submitAsync(
+      @NonNull Supplier<? extends CompletionStage<T>> task, @NonNull Object sequenceKey) {
+    TaskNode<T> taskNode = new AsyncNode<>(task);
+    enqueueOrReject(taskNode, sequenceKey);
+    return new DefensiveFuture<>(taskNode);
+  }
+
+  /**
+   * Same as {@link #submitAsync(Supplier, Object)} with the attempts of the task as the async
+   * task: the key is held in order until the last attempt, but no worker thread is held during the
+   * backoff between attempts. Retries run on the worker thread pool.
+   */
+  @Override
+  public <T> @Nonnull Future<T> submit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, @NonNull RetryPolicy retryPolicy) {
+    return submitAsync(() -> retryPolicy.attempting(task, workerExecutorService), sequenceKey);
+  }
+
+  /**
+   * Enqueues the command as a single task node, without the defensive view of a future. The same
+   * overflow and in-flight limit rules as {@link #submit(Callable, Object)} apply, except that a
+   * dropped command is silently discarded. A failure of the command is reported to the configured
+   * uncaught exception handler.
+   *
+   * @throws RejectedExecutionException if the command cannot be accepted for execution
+   */
+  @Override
+  public void executeAndForget(@NonNull Runnable command, @NonNull Object sequenceKey) {
+    enqueueOrReject(new CommandNode(command), sequenceKey);
+  }
+
+  /**
+   * Awaits the tasks admitted to the key's queue so far, without submitting anything: the flush
+   * completes once the drainer has finished as many tasks of the queue, or once the queue retires.
+   * The admitted and finished counts are read as one snapshot, so tasks admitted after the call
+   * are not awaited.
+   */
+  @Override
+  public @Nonnull CompletionStage<Void> flush(@NonNull Object sequenceKey) {
+    KeyQueue keyQueue = activeQueues.get(sequenceKey);
+    return keyQueue == null
+        ? CompletableFuture.completedStage(null)
+        : keyQueue.flush().minimalCompletionStage();
+  }
+
+  /**
+   * Awaits the tasks admitted so far to the queues of all active keys, without submitting
+   * anything.
+   *
+   * @see #flush(Object)
+   */
+  @Override
+  public @Nonnull CompletionStage<Void> flushAll() {
+    CompletableFuture<?>[] flushes =
+        activeQueues.values().stream().map(KeyQueue::flush).toArray(CompletableFuture<?>[]::new);
+    return CompletableFuture.allOf(flushes).minimalCompletionStage();
+  }
+
+  private void enqueueOrReject(TaskNode<?> taskNode, Object sequenceKey) {
+    switch (enqueue(taskNode, sequenceKey, true, Long.MAX_VALUE)) {
+      case DROPPED -> taskNode.discard();
+      case REFUSED -> throw new RejectedExecutionException(
+          "reached per-key capacity " + perKeyCapacity + " of " + sequenceKey);
+      case THROTTLED -> throw new RejectedExecutionException(
+          "reached in-flight limit " + inFlightLimit.maxInFlight());
+      case INTERRUPTED -> {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(
+            "interrupted while waiting for room of " + sequenceKey);
+      }
+      default -> {}
+    }
+  }
+
+  /**
+   * Never waits for room if the sequence key already has its capacity of tasks pending, regardless
+   * of the configured {@link OverflowPolicy}. With {@link OverflowPolicy#DROP_OLDEST}, the oldest
+   * task of the key not yet started is still cancelled to make room for the submitted task.
+   */
+  @Override
+  public <T> @Nonnull Optional<Future<T>> trySubmit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    TaskNode<T> taskNode = new TaskNode<>(task);
+    return accepted(taskNode, enqueue(taskNode, sequenceKey, false, 0));
+  }
+
+  /**
+   * Only waits for room, up to the specified timeout, with {@link OverflowPolicy#BLOCK}.
+   *
+   * @see #trySubmit(Callable, Object)
+   */
+  @Override
+  public <T> @Nonnull Optional<Future<T>> trySubmit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, @NonNull Duration timeout)
+      throws InterruptedException {
+    TaskNode<T> taskNode = new TaskNode<>(task);
+    Admission admission = enqueue(taskNode, sequenceKey, true, Durations.toNanos(timeout));
+    if (admission == Admission.INTERRUPTED) {
+      taskNode.discard();
+      throw new InterruptedException("interrupted while waiting for room of " + sequenceKey);
+    }
+    return accepted(taskNode, admission);
+  }
+
+  private static <T> Optional<Future<T>> accepted(TaskNode<T> taskNode, Admission admission) {
+    if (admission == Admission.ADMITTED) {
+      return Optional.of(new DefensiveFuture<>(taskNode));
+    }
+    taskNode.discard();
+    return Optional.empty();
+  }
+
+  /**
+   * @param blocking whether to wait for room in case of {@link OverflowPolicy#BLOCK}
+   * @param timeoutNanos max nanoseconds to wait for room, {@link Long#MAX_VALUE} meaning forever
+   * @return admission outcome of the task node
+   */
+  private Admission enqueue(
+      TaskNode<?> taskNode, Object sequenceKey, boolean blocking, long timeoutNanos) {
+    if (inFlightLimit != null && !inFlightLimit.tryAcquire()) {
+      return Admission.THROTTLED;
+    }
+    Admission admission = enqueuePermitted(taskNode, sequenceKey, blocking, timeoutNanos);
+    if (admission != Admission.ADMITTED) {
+      releasePermit();
+    }
+    return admission;
+  }
+
+  private Admission enqueuePermitted(
+      TaskNode<?> taskNode, Object sequenceKey, boolean blocking, long timeoutNanos) {
+    long deadlineNanos = 0;
+    while (true) {
+      KeyQueue keyQueue = activeQueues.computeIfAbsent(sequenceKey, keyQueueFactory);
+      int pendingBefore = keyQueue.admit();
+      if (pendingBefore == KeyQueue.RETIRED) {
+        activeQueues.remove(sequenceKey, keyQueue);
+        continue;
+      }
+      if (pendingBefore == KeyQueue.FULL) {
+        switch (overflowPolicy) {
+          case BLOCK -> {
+            if (!blocking) {
+              return Admission.REFUSED;
+            }
+            if (deadlineNanos == 0) {
+              deadlineNanos = timeoutNanos == Long.MAX_VALUE ? 0 : System.nanoTime() + timeoutNanos;
+            }
+            try {
+              if (!keyQueue.awaitRoom(deadlineNanos)) {
+                return Admission.REFUSED;
+              }
+            } catch (InterruptedException e) {
+              return Admission.INTERRUPTED;
+            }
+            continue;
+          }
+          case DROP_OLDEST -> {
+            if (!keyQueue.evictOldest()) {
+              return Admission.DROPPED;
+            }
+            continue;
+          }
+          case DROP_NEWEST -> {
+            return Admission.DROPPED;
+          }
+          default -> {
+            return Admission.REFUSED;
+          }
+        }
+      }
+      enqueued(keyQueue, taskNode, pendingBefore + 1);
+      if (pendingBefore == 0) {
+        metrics.keyActivated();
+        dispatch(keyQueue);
+      }
+      return Admission.ADMITTED;
+    }
+  }
+
+  private void enqueued(KeyQueue keyQueue, TaskNode<?> taskNode, int queueDepth) {
+    if (metered) {
+      taskNode.queuedNanos = System.nanoTime();
+      metrics.taskQueued(queueDepth);
+    }
+    taskNode.admitTo(keyQueue);
+    keyQueue.offer(taskNode);
+    if (taskNode instanceof ConflatingNode<?> conflatingNode) {
+      keyQueue.conflate(conflatingNode);
+    }
+  }
+
+  private void releasePermit() {
+    if (inFlightLimit != null) {
+      inFlightLimit.release();
+    }
+  }
+
+  private void dispatch(KeyQueue keyQueue) {
+    if (fairQuantum != null) {
+      dispatchFair(keyQueue);
+      return;
+    }
+    try {
+      workerExecutorService.execute(keyQueue);
+    } catch (RejectedExecutionException e) {
+      keyQueue.abort(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Puts the newly active key queue in line, and dispatches a turn to serve the ready queues. If
+   * the turn is rejected, the entry left without a turn is aborted: normally the key queue itself,
+   * but another one in case a running turn has already taken the key queue up.
+   */
+  private void dispatchFair(KeyQueue keyQueue) {
+    getInLine(keyQueue);
+    try {
+      workerExecutorService.execute(fairTurn);
+    } catch (RejectedExecutionException e) {
+      KeyQueue orphan = readyQueues.remove(keyQueue) ? keyQueue : readyQueues.poll();
+      if (orphan != null) {
+        orphan.abort(e);
+      }
+      if (orphan == keyQueue) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Serves the key queue that has waited the longest, or if prioritized, whose next task is the
+   * most urgent, for one round; then, unless the queue retired, puts it back in line and
+   * re-dispatches this turn to the back of the worker thread pool. If the pool no longer accepts
+   * the turn, e.g. during orderly shutdown, this turn carries on with the current thread.
+   */
+  private void serveReadyQueue() {
+    while (true) {
+      KeyQueue keyQueue = readyQueues.poll();
+      if (keyQueue == null || keyQueue.serveRound()) {
+        return;
+      }
+      getInLine(keyQueue);
+      if (redispatch(fairTurn)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Only called by the one thread holding the active key queue, i.e. the producer that activated
+   * the key or the turn that just served it, while the key queue is not in line.
+   */
+  private void getInLine(KeyQueue keyQueue) {
+    if (prioritized) {
+      keyQueue.readyPriority = keyQueue.peek().priority;
+      keyQueue.readySequence = lineSequence.getAndIncrement();
+    }
+    readyQueues.add(keyQueue);
+  }
+
+  /**
+   * @return true if the runnable is re-dispatched to the worker thread pool; false if the pool no
+   *     longer accepts it
+   */
+  private boolean redispatch(Runnable runnable) {
+    try {
+      workerExecutorService.execute(runnable);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /** Orderly shutdown, and awaits thread pool termination. */
+  @Override
+  public void close() {
+    workerExecutorService.close();
+  }
+
+  /**
+   * Checks if there are no tasks pending execution.
+   *
+   * @return true if there are no pending tasks, false otherwise.
+   */
+  boolean noTaskPending() {
+    return activeQueues.isEmpty();
+  }
+
+  /** Initiates an orderly shutdown of the workerExecutorService. */
+  @Override
+  public void terminate() {
+    new Thread(workerExecutorService::close).start();
+  }
+
+  /**
+   * Checks if the workerExecutorService has terminated.
+   *
+   * @return true if the worker service has terminated, false otherwise.
+   */
+  @Override
+  public boolean isTerminated() {
+    return workerExecutorService.isTerminated();
+  }
+
+  /**
+   * Attempts to stop all actively executing tasks and returns a list of key queue drainers, or of
+   * scheduling turns in case of a fair quantum, that never commenced execution. Active drainers
+   * cancel, instead of run, their remaining tasks. The tasks of the drainers and turns that never
+   * commenced are cancelled right away, on the calling thread, giving back their in-flight permits
+   * to a shared {@link InFlightLimit}; running the returned drainers or turns does nothing.
+   *
+   * @return a list of key queue drainers that never commenced execution.
+   */
+  @Override
+  public @Nonnull List<Runnable> terminateNow() {
+    halted = true;
+    List<Runnable> neverCommenced = workerExecutorService.shutdownNow();
+    for (Runnable runnable : neverCommenced) {
+      if (runnable instanceof KeyQueue keyQueue) {
+        keyQueue.discardAll();
+      } else if (runnable == fairTurn) {
+        KeyQueue keyQueue;
+        while ((keyQueue = readyQueues.poll()) != null) {
+          keyQueue.discardAll();
+        }
+      }
+    }
+    return neverCommenced;
+  }
+
+  /**
+   * A submitted task, linked to the next task of the same sequence key. The node itself is the
+   * future result of the task, so that each submission costs only the node and its defensive view.
+   * A node cancelled before the drainer takes it is skipped, without calling the task, and gives
+   * back its room in the key queue and its in-flight permit right away; cancelling with
+   * interruption while the task runs interrupts the drainer's thread.
+   *
+   * @param <T> the type of the task's result
+   */
+  private static class TaskNode<T> extends InterruptibleFuture<T> {
+    private static final VarHandle NEXT;
+    private static final VarHandle QUEUE;
+
+    static {
+      try {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        NEXT = lookup.findVarHandle(TaskNode.class, "next", TaskNode.class);
+        QUEUE = lookup.findVarHandle(TaskNode.class, "queue", KeyQueue.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    private Callable<T> task;
+
+    /** Taken upon admission, only if metered */
+    long queuedNanos;
+
+    /** Scheduling priority of the task, only set before admission */
+    int priority;
+
+    @SuppressWarnings("unused")
+    private volatile TaskNode<?> next;
+
+    /**
+     * Queue that admitted this node, until claimed by whichever comes first: the drainer taking the
+     * node, or a cancellation giving back the node's room in the queue
+     */
+    @SuppressWarnings("unused")
+    private volatile KeyQueue queue;
+
+    TaskNode(Callable<T> task) {
+      this.task = task;
+    }
+
+    void admitTo(KeyQueue keyQueue) {
+      QUEUE.set(this, keyQueue);
+    }
+
+    /**
+     * @return true if claimed by the caller; false if a cancellation has already given back the
+     *     node's room in the queue
+     */
+    boolean claimAdmission() {
+      return QUEUE.getAndSet(this, null) != null;
+    }
+
+    /**
+     * Discards this node if it is still queued, giving back its room in the queue.
+     *
+     * @return true if discarded; false if the node is already taken by the drainer or cancelled
+     */
+    boolean evict() {
+      KeyQueue admitting = (KeyQueue) QUEUE.getAndSet(this, null);
+      if (admitting == null) {
+        return false;
+      }
+      discard();
+      admitting.credit();
+      return true;
+    }
+
+    /** Gives back the node's room in the queue, if cancelled before the drainer takes the node. */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        KeyQueue admitting = (KeyQueue) QUEUE.getAndSet(this, null);
+        if (admitting != null) {
+          admitting.credit();
+        }
+      }
+      return cancelled;
+    }
+
+    TaskNode<?> next() {
+      return (TaskNode<?>) NEXT.getAcquire(this);
+    }
+
+    void link(TaskNode<?> next) {
+      NEXT.setRelease(this, next);
+    }
+
+    void unlink() {
+      NEXT.setOpaque(this, null);
+    }
+
+    /**
+     * Calls the task unless this node is already done, e.g. cancelled before it starts.
+     *
+     * @return true if the task is called
+     */
+    boolean run() {
+      Callable<T> callable = task;
+      task = null;
+      return callTask(callable);
+    }
+
+    void abort(Throwable cause) {
+      task = null;
+      completeExceptionally(cause);
+    }
+
+    void discard() {
+      task = null;
+      cancel(false);
+    }
+  }
+
+  /**
+   * A command executed and forgotten. Nobody holds the node as a future, so it is never completed;
+   * a failure of the command is reported to the uncaught exception handler instead.
+   */
+  private final class CommandNode extends TaskNode<Void> {
+    private Runnable command;
+
+    CommandNode(Runnable command) {
+      super(null);
+      this.command = command;
+    }
+
+    @Override
+    boolean run() {
+      Runnable runnable = command;
+      command = null;
+      if (runnable == null) {
+        return false;
+      }
+      try {
+        runnable.run();
+      } catch (Throwable t) {
+        UncaughtExceptions.report(t, uncaughtExceptionHandler);
+      }
+      return true;
+    }
+
+    @Override
+    void abort(Throwable cause) {
+      command = null;
+      UncaughtExceptions.report(cause, uncaughtExceptionHandler);
+    }
+
+    @Override
+    void discard() {
+      command = null;
+    }
+  }
+
+  /** A submitted task that is completed exceptionally, instead of called, past its deadline. */
+  private static final class ExpiringNode<T> extends TaskNode<T> {
+    private final Deadline deadline;
+
+    ExpiringNode(Callable<T> task, Deadline deadline) {
+      super(task);
+      this.deadline = deadline;
+    }
+
+    @Override
+    boolean run() {
+      if (deadline.expired()) {
+        abort(deadline.expiry());
+        return false;
+      }
+      return super.run();
+    }
+  }
+
+  /**
+   * A submitted task that a later conflating task of the same key can supersede. Whichever comes
+   * first claims the node: the drainer starting it, or the superseding producer discarding it.
+   */
+  private static final class ConflatingNode<T> extends TaskNode<T> {
+    private static final VarHandle CLAIMED;
+
+    static {
+      try {
+        CLAIMED =
+            MethodHandles.lookup().findVarHandle(ConflatingNode.class, "claimed", boolean.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    @SuppressWarnings("unused")
+    private volatile boolean claimed;
+
+    ConflatingNode(Callable<T> task) {
+      super(task);
+    }
+
+    @Override
+    boolean run() {
+      return claim() && super.run();
+    }
+
+    void supersede() {
+      if (claim()) {
+        discard();
+      }
+    }
+
+    private boolean claim() {
+      return CLAIMED.compareAndSet(this, false, true);
+    }
+  }
+
+  /**
+   * A submitted async task, completed by the stage that the task supplies. If the stage is still
+   * pending when the task returns, the drainer suspends the key's queue until the stage completes.
+   * A cancellation also cancels the supplied stage, so that the queue resumes without waiting the
+   * stage out.
+   */
+  private static final class AsyncNode<T> extends TaskNode<T> {
+    private Supplier<? extends CompletionStage<T>> supplier;
+
+    /** Supplied by the task, only accessed by the drainer */
+    private CompletionStage<T> stage;
+
+    /** Supplied by the task, until it completes, for a cancellation to cancel */
+    private volatile CompletionStage<T> pending;
+
+    AsyncNode(Supplier<? extends CompletionStage<T>> supplier) {
+      super(null);
+      this.supplier = supplier;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      CompletionStage<T> supplied = pending;
+      if (cancelled && supplied != null) {
+        WorkStages.cancelSupplied(supplied);
+      }
+      return cancelled;
+    }
+
+    @Override
+    boolean run() {
+      Supplier<? extends CompletionStage<T>> task = supplier;
+      supplier = null;
+      if (isDone()) {
+        return false;
+      }
+      try {
+        stage = Objects.requireNonNull(task.get(), "async task supplied null stage");
+        pending = stage;
+        if (isCancelled()) {
+          WorkStages.cancelSupplied(stage);
+        }
+        stage.whenComplete((r, e) -> {
+          pending = null;
+          if (e == null) {
+            complete(r);
+          } else {
+            completeExceptionally(e);
+          }
+        });
+      } catch (Throwable t) {
+        completeExceptionally(t);
+      }
+      return true;
+    }
+
+    @Override
+    void abort(Throwable cause) {
+      supplier = null;
+      super.abort(cause);
+    }
+
+    @Override
+    void discard() {
+      supplier = null;
+      super.discard();
+    }
+
+    /**
+     * @param keyQueue the queue that ran this task
+     * @return true if the queue is suspended until the supplied stage completes; false if no stage
+     *     is pending
+     */
+    boolean suspend(KeyQueue keyQueue) {
+      CompletionStage<T> supplied = stage;
+      stage = null;
+      if (supplied == null
+          || supplied instanceof CompletableFuture<?> completable && completable.isDone()) {
+        return false;
+      }
+      supplied.whenComplete((r, e) -> keyQueue.resume());
+      return true;
+    }
+  }
+
+  /** Awaits the drainer of a key queue finishing the target count of tasks */
+  private static final class Flush extends CompletableFuture<Void> {
+    /** Finished count to reach, wrapping around like the finished count itself */
+    final int target;
+
+    Flush(int target) {
+      this.target = target;
+    }
+
+    boolean reachedBy(int finishedCount) {
+      return finishedCount - target >= 0;
+    }
+  }
+
+  /** Outcome of submitting a task node to the queue of its sequence key */
+  private enum Admission {
+    ADMITTED,
+    /** Dropped per the overflow policy, to be cancelled */
+    DROPPED,
+    /** Refused per the overflow policy, or after waiting for room in vain */
+    REFUSED,
+    /** Interrupted while waiting for room */
+    INTERRUPTED,
+    /** Refused for lack of a permit from the in-flight limit */
+    THROTTLED
+  }
+
+  /**
+   * Task queue of an active sequence key, as well as the drainer of the queue. Producers link task
+   * nodes to the tail with an atomic swap; only the drainer takes task nodes from the head. A node
+   * cancelled while queued, including one evicted per {@link OverflowPolicy#DROP_OLDEST}, stays
+   * linked until the drainer takes and skips it, but its room is credited back right away.
+   */
+  @ToString(onlyExplicitlyIncluded = true)
+  private final class KeyQueue implements Runnable {
+    static final int RETIRED = -1;
+    static final int FULL = -2;
+    private static final long RETIRED_BITS = RETIRED & 0xFFFF_FFFFL;
+    private static final long ONE_FINISHED = 1L << Integer.SIZE;
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle STATE;
+    private static final VarHandle CANCELLED;
+    private static final VarHandle BLOCKED_PRODUCERS;
+    private static final VarHandle FLUSHES;
+    private static final VarHandle LATEST_CONFLATING;
+
+    static {
+      try {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        HEAD = lookup.findVarHandle(KeyQueue.class, "head", TaskNode.class);
+        TAIL = lookup.findVarHandle(KeyQueue.class, "tail", TaskNode.class);
+        STATE = lookup.findVarHandle(KeyQueue.class, "state", long.class);
+        CANCELLED = lookup.findVarHandle(KeyQueue.class, "cancelled", int.class);
+        BLOCKED_PRODUCERS =
+            lookup.findVarHandle(KeyQueue.class, "blockedProducers", ConcurrentLinkedQueue.class);
+        FLUSHES = lookup.findVarHandle(KeyQueue.class, "flushes", ConcurrentLinkedQueue.class);
+        LATEST_CONFLATING =
+            lookup.findVarHandle(KeyQueue.class, "latestConflating", ConflatingNode.class);
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
+    @ToString.Include
+    private final Object sequenceKey;
+
+    /** Most recently taken node */
+    private volatile TaskNode<?> head;
+
+    private volatile TaskNode<?> tail;
+
+    /**
+     * Count of admitted tasks not yet run, or {@link #RETIRED} once the drainer retires, in the low
+     * half; count of tasks finished, wrapping around, in the high half. Only the drainer updates
+     * the finished count, together with the pending count, so that both read as one snapshot.
+     */
+    private volatile long state;
+
+    /** Count of pending tasks cancelled before the drainer takes them, their room credited back */
+    private volatile int cancelled;
+
+    /** Created on demand, only if a producer ever blocks per {@link OverflowPolicy#BLOCK} */
+    private volatile ConcurrentLinkedQueue<Thread> blockedProducers;
+
+    /** Created on demand, only if the queue is ever flushed */
+    private volatile ConcurrentLinkedQueue<Flush> flushes;
+
+    /** Most recently admitted conflating task node, if any */
+    @SuppressWarnings("unused")
+    private volatile ConflatingNode<?> latestConflating;
+
+    /**
+     * Service owed to this key under a fair quantum. Only accessed by the one turn serving this key
+     * at a time, each turn having taken the key from the ready queues.
+     */
+    private long deficit;
+
+    /** Priority of the next task as of getting in line, if prioritized */
+    private int readyPriority;
+
+    /** Order of getting in line among key queues of equal priority, if prioritized */
+    private long readySequence;
+
+    KeyQueue(Object sequenceKey) {
+      this.sequenceKey = sequenceKey;
+      TaskNode<?> stub = new TaskNode<>(null);
+      this.head = stub;
+      this.tail = stub;
+    }
+
+    /**
+     * @return the pending count before this admission, or {@link #RETIRED} if the queue no longer
+     *     accepts tasks, or {@link #FULL} if the queue already has its capacity of tasks pending
+     */
+    int admit() {
+      while (true) {
+        long current = state;
+        int pendingNow = pendingOf(current);
+        if (pendingNow == RETIRED) {
+          return RETIRED;
+        }
+        if (pendingNow - cancelled >= perKeyCapacity) {
+          return FULL;
+        }
+        if (STATE.compareAndSet(this, current, current + 1)) {
+          return pendingNow;
+        }
+      }
+    }
+
+    @ToString.Include(name = "pending")
+    private int pending() {
+      return pendingOf(state);
+    }
+
+    private static int pendingOf(long state) {
+      return (int) state;
+    }
+
+    private static int finishedOf(long state) {
+      return (int) (state >>> Integer.SIZE);
+    }
+
+    void offer(TaskNode<?> taskNode) {
+      TaskNode<?> previous = (TaskNode<?>) TAIL.getAndSet(this, taskNode);
+      previous.link(taskNode);
+    }
+
+    /**
+     * Supersedes the previous latest conflating task node, unless it has already started.
+     *
+     * @param conflatingNode the conflating task node just admitted to this queue
+     */
+    void conflate(ConflatingNode<?> conflatingNode) {
+      ConflatingNode<?> superseded =
+          (ConflatingNode<?>) LATEST_CONFLATING.getAndSet(this, conflatingNode);
+      if (superseded != null) {
+        superseded.supersede();
+      }
+    }
+
+    /**
+     * Only called by the drainer when the pending count is positive. An admitted producer may not
+     * have linked its node just yet, so spin until it does.
+     */
+    private TaskNode<?> take() {
+      while (true) {
+        TaskNode<?> taken = poll();
+        if (taken != null) {
+          return taken;
+        }
+        Thread.onSpinWait();
+      }
+    }
+
+    /**
+     * Only called when the pending count is positive, by the drainer or the producer that activated
+     * the queue.
+     *
+     * @return the next task node to be taken, without taking it
+     */
+    private TaskNode<?> peek() {
+      while (true) {
+        TaskNode<?> next = head.next();
+        if (next != null) {
+          return next;
+        }
+        Thread.onSpinWait();
+      }
+    }
+
+    private TaskNode<?> poll() {
+      TaskNode<?> current = head;
+      TaskNode<?> next = current.next();
+      if (next == null || !HEAD.compareAndSet(this, current, next)) {
+        return null;
+      }
+      current.unlink();
+      return next;
+    }
+
+    /**
+     * Cancels the oldest task node that has not yet been taken by the drainer, crediting its room
+     * back. The node stays linked for the drainer to skip.
+     *
+     * @return true if a node is evicted; false if no node is available for eviction
+     */
+    boolean evictOldest() {
+      TaskNode<?> node = head.next();
+      while (node != null) {
+        if (node.evict()) {
+          return true;
+        }
+        TaskNode<?> next = node.next();
+        if (next == null && node != tail) {
+          next = head.next();
+        }
+        node = next;
+      }
+      return false;
+    }
+
+    /**
+     * Gives back the room and the in-flight permit of a task node cancelled before the drainer
+     * takes it. The pending count keeps the node until the drainer skips it.
+     */
+    void credit() {
+      CANCELLED.getAndAdd(this, 1);
+      releasePermit();
+      signalBlockedProducers();
+    }
+
+    /**
+     * @param deadlineNanos {@link System#nanoTime()} to stop waiting at, or zero to wait forever
+     * @return true if there may be room now; false if the deadline passed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitRoom(long deadlineNanos) throws InterruptedException {
+      ConcurrentLinkedQueue<Thread> waiters = blockedProducers;
+      if (waiters == null) {
+        BLOCKED_PRODUCERS.compareAndSet(this, null, new ConcurrentLinkedQueue<Thread>());
+        waiters = blockedProducers;
+      }
+      Thread producer = Thread.currentThread();
+      waiters.add(producer);
+      try {
+        while (true) {
+          int current = pending();
+          if (current == RETIRED || current - cancelled < perKeyCapacity) {
+            return true;
+          }
+          if (deadlineNanos == 0) {
+            LockSupport.park(this);
+          } else {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+              return false;
+            }
+            LockSupport.parkNanos(this, remainingNanos);
+          }
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+      } finally {
+        waiters.remove(producer);
+      }
+    }
+
+    /**
+     * Awaits the drainer finishing the tasks pending now. The pending and finished counts are read
+     * as one snapshot, so the target is exactly the finished count once the tasks pending now are
+     * done.
+     *
+     * @return a flush that completes once the tasks pending now have finished
+     */
+    Flush flush() {
+      long now = state;
+      Flush flush = new Flush(finishedOf(now) + pendingOf(now));
+      if (pendingOf(now) == RETIRED || pendingOf(now) == 0) {
+        flush.complete(null);
+        return flush;
+      }
+      ConcurrentLinkedQueue<Flush> awaiting = flushes;
+      if (awaiting == null) {
+        FLUSHES.compareAndSet(this, null, new ConcurrentLinkedQueue<Flush>());
+        awaiting = flushes;
+      }
+      awaiting.add(flush);
+      long later = state;
+      if (pendingOf(later) == RETIRED || flush.reachedBy(finishedOf(later))) {
+        awaiting.remove(flush);
+        flush.complete(null);
+      }
+      return flush;
+    }
+
+    /**
+     * @param finishedCount count of tasks finished
+     * @param retired whether the queue is retired, completing all flushes
+     */
+    private void completeFlushes(int finishedCount, boolean retired) {
+      ConcurrentLinkedQueue<Flush> awaiting = flushes;
+      if (awaiting == null) {
+        return;
+      }
+      for (Iterator<Flush> iterator = awaiting.iterator(); iterator.hasNext(); ) {
+        Flush flush = iterator.next();
+        if (retired || flush.reachedBy(finishedCount)) {
+          iterator.remove();
+          flush.complete(null);
+        }
+      }
+    }
+
+    private void signalBlockedProducers() {
+      ConcurrentLinkedQueue<Thread> waiters = blockedProducers;
+      if (waiters != null) {
+        waiters.forEach(LockSupport::unpark);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (pendingOf(state) == RETIRED) {
+        return;
+      }
+      int batchRemaining = drainBatchSize;
+      long budgetStartNanos = drainTimeBudgetNanos == Long.MAX_VALUE ? 0 : System.nanoTime();
+      while (true) {
+        if (runNext()) {
+          return;
+        }
+        if (--batchRemaining == 0 || overBudget(budgetStartNanos)) {
+          if (redispatch(this)) {
+            return;
+          }
+          batchRemaining = drainBatchSize;
+          budgetStartNanos = drainTimeBudgetNanos == Long.MAX_VALUE ? 0 : System.nanoTime();
+        }
+      }
+    }
+
+    /**
+     * Credits the deficit of this key with the fair quantum, then runs tasks as long as the deficit
+     * stays positive. The deficit is forfeited when the queue retires, so an idle key does not
+     * hoard service for later.
+     *
+     * @return true if the queue is retired, or suspended awaiting an async task
+     */
+    boolean serveRound() {
+      deficit += fairQuantum.quantum();
+      while (deficit > 0) {
+        long startNanos = fairQuantum.timed() ? System.nanoTime() : 0;
+        boolean retired = runNext();
+        deficit -= fairQuantum.cost(fairQuantum.timed() ? System.nanoTime() - startNanos : 0);
+        if (retired) {
+          deficit = 0;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Runs, or discards if halted, the next task. If the task is async and its supplied stage is
+     * still pending, the queue is suspended: the task stays pending, and the stage's completion
+     * resumes the queue with a freshly dispatched drainer.
+     *
+     * @return true if the queue is retired after the task, or suspended
+     */
+    private boolean runNext() {
+      TaskNode<?> taskNode = take();
+      if (!taskNode.claimAdmission()) {
+        return releaseCancelled();
+      }
+      if (halted) {
+        taskNode.discard();
+      } else if (metered) {
+        runMetered(taskNode);
+      } else {
+        taskNode.run();
+      }
+      if (taskNode instanceof AsyncNode<?> asyncNode && asyncNode.suspend(this)) {
+        return true;
+      }
+      releasePermit();
+      return release();
+    }
+
+    /**
+     * Only called once halted, on a queue whose drainer never commenced: discards the pending
+     * tasks, giving back their permits, until the queue retires.
+     */
+    void discardAll() {
+      while (true) {
+        if (runNext()) {
+          return;
+        }
+      }
+    }
+
+    /** Completes the async task the queue is suspended on, then carries on with the next task. */
+    private void resume() {
+      releasePermit();
+      if (!release()) {
+        dispatch(this);
+      }
+    }
+
+    private void runMetered(TaskNode<?> taskNode) {
+      long startNanos = System.nanoTime();
+      if (taskNode.run()) {
+        metrics.taskStarted(startNanos - taskNode.queuedNanos);
+        metrics.taskCompleted(System.nanoTime() - startNanos);
+      }
+    }
+
+    /**
+     * Exceptionally completes all pending tasks with the specified cause, until the queue retires.
+     *
+     * @param cause the cause to complete the pending tasks with
+     */
+    void abort(Throwable cause) {
+      while (true) {
+        TaskNode<?> taskNode = take();
+        if (!taskNode.claimAdmission()) {
+          if (releaseCancelled()) {
+            return;
+          }
+          continue;
+        }
+        taskNode.abort(cause);
+        releasePermit();
+        if (release()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Releases the pending count of a task node cancelled before being taken, whose room and
+     * permit have already been credited back.
+     *
+     * @return true if the queue is retired
+     */
+    private boolean releaseCancelled() {
+      CANCELLED.getAndAdd(this, -1);
+      return release();
+    }
+
+    /**
+     * Releases the pending count of the task just taken, retiring the queue if the task was the
+     * last one pending. The task counts as finished, completing the flushes awaiting it.
+     *
+     * @return true if the queue is retired
+     */
+    private boolean release() {
+      long current = state;
+      int finishedCount = finishedOf(current) + 1;
+      long retired = (long) finishedCount << Integer.SIZE | RETIRED_BITS;
+      if (pendingOf(current) == 1 && STATE.compareAndSet(this, current, retired)) {
+        activeQueues.remove(sequenceKey, this);
+        metrics.keyRetired();
+        signalBlockedProducers();
+        completeFlushes(finishedCount, true);
+        return true;
+      }
+      STATE.getAndAdd(this, ONE_FINISHED - 1);
+      signalBlockedProducers();
+      completeFlushes(finishedCount, false);
+      return false;
+    }
+
+    private boolean overBudget(long budgetStartNanos) {
+      return drainTimeBudgetNanos != Long.MAX_VALUE
+          && System.nanoTime() - budgetStartNanos >= drainTimeBudgetNanos;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Expiry of a task that is useless unless it starts within a max wait since its submission. An
+ * expired task is completed exceptionally with a {@link TimeoutException} instead of being run.
+ */
+final class Deadline {
+  private final long submittedNanos = System.nanoTime();
+  private final long maxWaitNanos;
+  private final Duration maxWait;
+
+  /**
+   * @param maxWait max time since now for the task to start
+   */
+  Deadline(Duration maxWait) {
+    if (maxWait.isNegative() || maxWait.isZero()) {
+      throw new IllegalArgumentException("expecting positive deadline, but given: " + maxWait);
+    }
+    this.maxWait = maxWait;
+    this.maxWaitNanos = Durations.toNanos(maxWait);
+  }
+
+  /**
+   * @param task the Callable task to wrap
+   * @param maxWait max time since now for the task to start
+   * @return a Callable that calls the task unless past the deadline, in which case it throws a
+   *     {@link TimeoutException} instead
+   */
+  static <T> Callable<T> expiring(Callable<T> task, Duration maxWait) {
+    Deadline deadline = new Deadline(maxWait);
+    return () -> {
+      if (deadline.expired()) {
+        throw deadline.expiry();
+      }
+      return task.call();
+    };
+  }
+
+  boolean expired() {
+    return System.nanoTime() - submittedNanos > maxWaitNanos;
+  }
+
+  TimeoutException expiry() {
+    return new Expiry("task not started within deadline " + maxWait);
+  }
+
+  /**
+   * @param failure the failure of a task, possibly wrapped in a {@link
+   *     java.util.concurrent.CompletionException}
+   * @return true if the task was skipped past its deadline instead of being run, as opposed to
+   *     having failed on its own, e.g. with a {@link TimeoutException} of its own
+   */
+  static boolean isExpiry(Throwable failure) {
+    return failure instanceof Expiry
+        || failure instanceof CompletionException && failure.getCause() instanceof Expiry;
+  }
+
+  /** Tells an expired task apart from a task that throws a {@link TimeoutException} itself. */
+  private static final class Expiry extends TimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    Expiry(String message) {
+      super(message);
+    }
+  }
+}
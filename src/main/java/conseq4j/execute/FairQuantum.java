@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import java.time.Duration;
+import javax.annotation.Nonnull;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Service granted to an active sequence key per round of deficit-round-robin scheduling, either in
+ * number of tasks or in task run time.
+ *
+ * <p>Each round, a key's deficit is credited with the quantum, and the key runs tasks for as long
+ * as its deficit stays positive, each task debiting its cost. A time quantum charges each task its
+ * run nanoseconds, so a task overrunning the key's remaining deficit leaves the deficit negative,
+ * to be paid back in the key's next round. Over time, every backlogged key thus receives the same
+ * share of the worker threads, no matter how many tasks it has pending.
+ *
+ * @author Qingtian Wang
+ */
+@ToString
+public final class FairQuantum {
+  private final long quantum;
+  private final boolean timed;
+
+  private FairQuantum(long quantum, boolean timed) {
+    this.quantum = quantum;
+    this.timed = timed;
+  }
+
+  /**
+   * @param taskCount number of tasks a key runs per round
+   * @return a quantum charging each task a cost of one
+   */
+  public static @Nonnull FairQuantum ofTasks(int taskCount) {
+    if (taskCount <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive quantum task count, but given: " + taskCount);
+    }
+    return new FairQuantum(taskCount, false);
+  }
+
+  /**
+   * @param runTime task run time a key gets per round
+   * @return a quantum charging each task its run time
+   */
+  public static @Nonnull FairQuantum ofTime(@NonNull Duration runTime) {
+    if (runTime.isNegative() || runTime.isZero()) {
+      throw new IllegalArgumentException(
+          "expecting positive quantum run time, but given: " + runTime);
+    }
+    return new FairQuantum(Durations.toNanos(runTime), true);
+  }
+
+  long quantum() {
+    return quantum;
+  }
+
+  boolean timed() {
+    return timed;
+  }
+
+  /**
+   * @param runNanos run time of the task
+   * @return the deficit to debit for the task
+   */
+  long cost(long runNanos) {
+    return timed ? runNanos : 1;
+  }
+}
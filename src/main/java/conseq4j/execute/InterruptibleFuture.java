@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future of a task, completed by calling the task unless the future is already done, e.g.
+ * cancelled, by then. Unlike a plain {@link CompletableFuture}, cancelling with interruption while
+ * the task runs interrupts the thread running the task. The interrupt is cleared before the thread
+ * moves on, so it never leaks into a later task of the same thread.
+ *
+ * @param <T> the type of the task's result
+ */
+class InterruptibleFuture<T> extends CompletableFuture<T> {
+  private static final VarHandle RUNNER;
+
+  static {
+    try {
+      RUNNER =
+          MethodHandles.lookup().findVarHandle(InterruptibleFuture.class, "runner", Thread.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Thread calling the task, if any and not yet interrupted by a cancellation */
+  @SuppressWarnings("unused")
+  private volatile Thread runner;
+
+  /** Set while a cancellation is delivering its interrupt to the runner */
+  private volatile boolean interrupting;
+
+  /**
+   * @param task the task to call on the current thread
+   * @return true if the task is called; false if this future is already done
+   */
+  final boolean callTask(Callable<T> task) {
+    if (isDone()) {
+      return false;
+    }
+    Thread current = Thread.currentThread();
+    runner = current;
+    try {
+      if (isDone()) {
+        return false;
+      }
+      complete(task.call());
+    } catch (Throwable t) {
+      completeExceptionally(t);
+    } finally {
+      if (!RUNNER.compareAndSet(this, current, null)) {
+        while (interrupting) {
+          Thread.onSpinWait();
+        }
+        Thread.interrupted();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * If cancelled with interruption while the task runs, also interrupts the thread running the
+   * task. The result of an interrupted task is discarded either way.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled && mayInterruptIfRunning) {
+      interrupting = true;
+      Thread running = (Thread) RUNNER.getAndSet(this, null);
+      if (running != null) {
+        running.interrupt();
+      }
+      interrupting = false;
+    }
+    return cancelled;
+  }
+}
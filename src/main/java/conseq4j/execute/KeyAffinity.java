@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the consecutive tasks of a sequence key on the same {@link ForkJoinPool} worker thread:
+ * the next work stage of a key runs right on the worker that completes the previous stage, while
+ * the per-key state the tasks touch is still warm in that worker's cache, instead of being handed
+ * to whichever worker is free. A worker runs a bounded number of stages in a row that way, and
+ * then pushes the next stage into its own local queue, where another worker can steal it if this
+ * one stays busy.
+ *
+ * <p>Only a stage completed by a worker with the outcome of the stage's own work counts. If the
+ * work returns a stage to wait for, e.g. that of an async task, a throttle, a concurrency gate, or
+ * a halt, the work stage counts only if the returned stage is already done when the work returns;
+ * a stage returned pending completes on whichever thread completes it, possibly a worker running
+ * another key's task, so the next stage after it is handed to the pool.
+ *
+ * <p>The next stage runs on the worker only after the previous stage is done completing, i.e.
+ * after the cleanup actions depending on the previous stage, such as the release of its in-flight
+ * permit and the retirement of its key, rather than nested inside them.
+ */
+final class KeyAffinity implements WorkStages.Chainer {
+  /** Max number of stages a worker runs in a row, after the completion of the previous one */
+  private static final int MAX_AFFINITY_DEPTH = 32;
+
+  /** Per worker thread, the stage it is completing with the outcome of the stage's own work */
+  private static final ThreadLocal<Completing> COMPLETING =
+      ThreadLocal.withInitial(Completing::new);
+
+  private final ForkJoinPool pool;
+
+  KeyAffinity(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public CompletableFuture<?> first(Callable<?> task, boolean async) {
+    CompletableFuture<Object> stage = new CompletableFuture<>();
+    pool.execute(() -> run(task, async, stage));
+    return stage;
+  }
+
+  /** The thread chaining the stage, i.e. submitting the task, never runs the stage itself. */
+  @Override
+  public CompletableFuture<?> next(CompletableFuture<?> tail, Callable<?> task, boolean async) {
+    CompletableFuture<Object> stage = new CompletableFuture<>();
+    Thread chaining = Thread.currentThread();
+    tail.whenComplete((r, e) -> runAfter(tail, chaining, task, async, stage));
+    return stage;
+  }
+
+  /**
+   * Defers the stage to run right on the current worker thread, once done completing the previous
+   * stage, if the worker is completing the previous stage of the key with that stage's own
+   * outcome; or else hands the stage to the pool.
+   */
+  private void runAfter(
+      CompletableFuture<?> previous,
+      Thread chaining,
+      Callable<?> task,
+      boolean async,
+      CompletableFuture<Object> stage) {
+    Thread current = Thread.currentThread();
+    if (current != chaining
+        && current instanceof ForkJoinWorkerThread worker
+        && worker.getPool() == pool) {
+      Completing completing = COMPLETING.get();
+      if (completing.stage == previous && completing.depth < MAX_AFFINITY_DEPTH) {
+        completing.deferred = () -> run(task, async, stage);
+        return;
+      }
+    }
+    try {
+      pool.execute(() -> run(task, async, stage));
+    } catch (RejectedExecutionException e) {
+      stage.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Calls the task, then completes the stage with the outcome: marked as completing it, unless the
+   * task returns a stage to wait for that is still pending.
+   */
+  private static void run(Callable<?> task, boolean async, CompletableFuture<Object> stage) {
+    Object result;
+    try {
+      result = task.call();
+    } catch (Throwable t) {
+      complete(stage, null, t);
+      return;
+    }
+    if (!async) {
+      complete(stage, result, null);
+      return;
+    }
+    if (!(result instanceof CompletionStage<?> returned)) {
+      complete(stage, null, new NullPointerException("work returned no stage to wait for"));
+      return;
+    }
+    if (returned instanceof CompletableFuture<?> done && done.isDone()) {
+      done.whenComplete((r, e) -> complete(stage, r, e));
+    } else {
+      returned.whenComplete((r, e) -> {
+        if (e == null) {
+          stage.complete(r);
+        } else {
+          stage.completeExceptionally(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Completes the stage, marked as completing it, then runs the next stage of the key if deferred
+   * to this worker meanwhile.
+   */
+  private static void complete(CompletableFuture<Object> stage, Object result, Throwable failure) {
+    Completing completing = COMPLETING.get();
+    CompletableFuture<?> outer = completing.stage;
+    completing.stage = stage;
+    try {
+      if (failure == null) {
+        stage.complete(result);
+      } else {
+        stage.completeExceptionally(failure);
+      }
+    } finally {
+      completing.stage = outer;
+    }
+    Runnable next = completing.deferred;
+    if (next == null) {
+      return;
+    }
+    completing.deferred = null;
+    completing.depth++;
+    try {
+      next.run();
+    } finally {
+      completing.depth--;
+    }
+  }
+
+  private static final class Completing {
+    CompletableFuture<?> stage;
+
+    /** Next stage of the key, to run once done completing the stage */
+    Runnable deferred;
+
+    int depth;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import conseq4j.metrics.ConseqMetrics;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Execution queues of primitive long sequence keys, holding the tail work stage of each active key
+ * without boxing the key. The keys are striped across segments, each an open-addressing table with
+ * linear probing guarded by the segment's own monitor, so that keys of different segments never
+ * contend.
+ */
+@ThreadSafe
+final class LongKeyedExecutionQueues {
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * Stripes the keys across at least as many segments as the available processors.
+   *
+   * @param metrics notified when a key gets or loses its entry
+   */
+  LongKeyedExecutionQueues(ConseqMetrics metrics) {
+    int segmentCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(metrics);
+    }
+    this.segmentMask = segmentCount - 1;
+  }
+
+  /**
+   * Murmur3 finalizer, so that the segment (high bits) and the slot (low bits) of a key are chosen
+   * by well-mixed bits even for sequential keys.
+   */
+  private static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private Segment segmentOf(long mixed) {
+    return segments[(int) (mixed >>> 32) & segmentMask];
+  }
+
+  /**
+   * Chains the task as the new tail work stage of the sequence key: behind the current tail if the
+   * key is active, or as a fresh stage otherwise.
+   *
+   * @param sequenceKey the key under which the task is sequenced
+   * @param task the task to chain
+   * @param async whether the task returns a stage that the next task of the key waits for
+   * @param chainer builds the work stage of the task
+   * @return the new tail work stage of the key
+   */
+  CompletableFuture<?> chain(
+      long sequenceKey, Callable<?> task, boolean async, WorkStages.Chainer chainer) {
+    long mixed = mix(sequenceKey);
+    return segmentOf(mixed).chain(sequenceKey, (int) mixed, task, async, chainer);
+  }
+
+  /**
+   * @param sequenceKey the key whose tail to get
+   * @return the current tail work stage of the key, or null if the key is not active
+   */
+  CompletableFuture<?> tail(long sequenceKey) {
+    long mixed = mix(sequenceKey);
+    return segmentOf(mixed).tail(sequenceKey, (int) mixed);
+  }
+
+  /**
+   * @param into receives the current tail work stage of every active key
+   */
+  void collectTails(Collection<CompletableFuture<?>> into) {
+    for (Segment segment : segments) {
+      segment.collectTails(into);
+    }
+  }
+
+  /**
+   * Removes the key's entry only if its tail is still the specified work stage, i.e. no subsequent
+   * stage has been chained since.
+   *
+   * @param sequenceKey the key whose entry to remove
+   * @param tail the work stage expected as the key's tail
+   * @return true if the entry is removed, i.e. the key is retired
+   */
+  boolean remove(long sequenceKey, CompletableFuture<?> tail) {
+    long mixed = mix(sequenceKey);
+    return segmentOf(mixed).remove(sequenceKey, (int) mixed, tail);
+  }
+
+  boolean isEmpty() {
+    for (Segment segment : segments) {
+      if (!segment.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Open-addressing table of the keys in one stripe; an empty slot has a null tail. */
+  private static final class Segment {
+    private static final int MIN_CAPACITY = 8;
+
+    private final ConseqMetrics metrics;
+    private long[] keys = new long[MIN_CAPACITY];
+    private CompletableFuture<?>[] tails = new CompletableFuture<?>[MIN_CAPACITY];
+    private int size;
+
+    Segment(ConseqMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    synchronized CompletableFuture<?> chain(
+        long key, int hash, Callable<?> task, boolean async, WorkStages.Chainer chainer) {
+      int mask = tails.length - 1;
+      int i = hash & mask;
+      for (CompletableFuture<?> tail; (tail = tails[i]) != null; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          CompletableFuture<?> next = chainer.next(tail, task, async);
+          tails[i] = next;
+          return next;
+        }
+      }
+      CompletableFuture<?> next = chainer.first(task, async);
+      keys[i] = key;
+      tails[i] = next;
+      metrics.keyActivated();
+      if (++size > tails.length >>> 1) {
+        rehash(tails.length << 1);
+      }
+      return next;
+    }
+
+    synchronized CompletableFuture<?> tail(long key, int hash) {
+      int mask = tails.length - 1;
+      for (int i = hash & mask; tails[i] != null; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return tails[i];
+        }
+      }
+      return null;
+    }
+
+    synchronized void collectTails(Collection<CompletableFuture<?>> into) {
+      for (CompletableFuture<?> tail : tails) {
+        if (tail != null) {
+          into.add(tail);
+        }
+      }
+    }
+
+    synchronized boolean remove(long key, int hash, CompletableFuture<?> tail) {
+      int mask = tails.length - 1;
+      int i = hash & mask;
+      for (CompletableFuture<?> current; (current = tails[i]) != null; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          if (current != tail) {
+            return false;
+          }
+          delete(i);
+          metrics.keyRetired();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    synchronized boolean isEmpty() {
+      return size == 0;
+    }
+
+    /** Backward-shift deletion, keeping every probe sequence free of holes without tombstones. */
+    private void delete(int slot) {
+      int mask = tails.length - 1;
+      int hole = slot;
+      for (int j = (slot + 1) & mask; tails[j] != null; j = (j + 1) & mask) {
+        int home = (int) mix(keys[j]) & mask;
+        if (((j - home) & mask) >= ((j - hole) & mask)) {
+          keys[hole] = keys[j];
+          tails[hole] = tails[j];
+          hole = j;
+        }
+      }
+      tails[hole] = null;
+      if (--size < tails.length >>> 3 && tails.length > MIN_CAPACITY) {
+        rehash(tails.length >>> 1);
+      }
+    }
+
+    private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      CompletableFuture<?>[] oldTails = tails;
+      keys = new long[capacity];
+      tails = new CompletableFuture<?>[capacity];
+      int mask = capacity - 1;
+      for (int j = 0; j < oldTails.length; j++) {
+        if (oldTails[j] == null) {
+          continue;
+        }
+        int i = (int) mix(oldKeys[j]) & mask;
+        while (tails[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        tails[i] = oldTails[j];
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Variant of the {@link SequentialExecutor} API keyed by primitive long values, e.g. numeric
+ * account IDs, sparing the boxing of the sequence key on each submission. Otherwise, the same
+ * sequencing and thread-safety rules of the {@link SequentialExecutor} apply.
+ *
+ * <p>For an implementation of both APIs, tasks submitted under a primitive long key are sequenced
+ * together with those submitted under a {@link Long} or {@link Integer} of the same value.
+ *
+ * @author Qingtian Wang
+ */
+public interface LongSequentialExecutor {
+  /**
+   * Asynchronously executes specified command in sequence regulated by specified key
+   *
+   * @param command the Runnable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return future holding run status of the submitted command
+   */
+  default Future<Void> execute(Runnable command, long sequenceKey) {
+    return submit(Executors.callable(command, null), sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified command in sequence regulated by specified key, without
+   * tracking the command's completion.
+   *
+   * @param command the Runnable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @see SequentialExecutor#executeAndForget(Runnable, Object)
+   */
+  default void executeAndForget(Runnable command, long sequenceKey) {
+    execute(UncaughtExceptions.reporting(command), sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a Future representing pending completion of the submitted task
+   */
+  <T> Future<T> submit(Callable<T> task, long sequenceKey);
+
+  /**
+   * Attempts to asynchronously execute specified task in sequence regulated by specified key,
+   * without waiting for room to accept the task. Implementations that do not bound their pending
+   * tasks always accept the task.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a Future representing pending completion of the submitted task, or empty if the task
+   *     is not accepted
+   */
+  default <T> Optional<Future<T>> trySubmit(Callable<T> task, long sequenceKey) {
+    return Optional.of(submit(task, sequenceKey));
+  }
+}
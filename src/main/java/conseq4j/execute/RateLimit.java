@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import java.time.Duration;
+import javax.annotation.Nonnull;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Token-bucket limit of a task dispatch rate: a bucket holds up to the burst number of permits,
+ * refilled at the permit rate, and each task takes a permit when its turn to run comes. A task
+ * finding the bucket empty is not run until its permit is due.
+ *
+ * @author Qingtian Wang
+ */
+@ToString
+public final class RateLimit {
+  /** Refill interval of a single permit */
+  private final long intervalNanos;
+
+  private final int burst;
+
+  private RateLimit(long intervalNanos, int burst) {
+    this.intervalNanos = intervalNanos;
+    this.burst = burst;
+  }
+
+  /**
+   * @param permits number of tasks allowed per period, also allowed in a burst
+   * @param period the period over which the permits are refilled
+   * @return a rate limit with a burst of the permits per period
+   */
+  public static @Nonnull RateLimit of(int permits, @NonNull Duration period) {
+    return of(permits, period, permits);
+  }
+
+  /**
+   * @param permits number of tasks allowed per period
+   * @param period the period over which the permits are refilled
+   * @param burst max number of tasks allowed at once, after an idle spell
+   * @return a rate limit with the specified burst
+   */
+  public static @Nonnull RateLimit of(int permits, @NonNull Duration period, int burst) {
+    if (permits <= 0) {
+      throw new IllegalArgumentException("expecting positive permits, but given: " + permits);
+    }
+    if (period.isNegative() || period.isZero()) {
+      throw new IllegalArgumentException("expecting positive period, but given: " + period);
+    }
+    if (burst <= 0) {
+      throw new IllegalArgumentException("expecting positive burst, but given: " + burst);
+    }
+    return new RateLimit(Math.max(1, Durations.toNanos(period) / permits), burst);
+  }
+
+  /**
+   * @param nowNanos current {@link System#nanoTime()}
+   * @return a new bucket of this limit, holding the full burst of permits
+   */
+  TokenBucket newBucket(long nowNanos) {
+    return new TokenBucket(intervalNanos, (burst - 1) * intervalNanos, nowNanos);
+  }
+
+  /**
+   * Permits of a {@link RateLimit}, tracked as the theoretical time the bucket is full again. A
+   * permit is reserved ahead of time if the bucket is empty, so the waiting tasks are served in the
+   * order of their reservations.
+   */
+  static final class TokenBucket {
+    private final long intervalNanos;
+
+    /** How far ahead of now the full time can be while permits are left, i.e. the burst */
+    private final long toleranceNanos;
+
+    private long fullNanos;
+
+    /** Whether a check is scheduled to drop the bucket once full */
+    private boolean sweeping;
+
+    private TokenBucket(long intervalNanos, long toleranceNanos, long nowNanos) {
+      this.intervalNanos = intervalNanos;
+      this.toleranceNanos = toleranceNanos;
+      this.fullNanos = nowNanos;
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return nanos to wait until the reserved permit is due; zero if available now
+     */
+    synchronized long reserve(long nowNanos) {
+      long dueNanos = Math.max(nowNanos, fullNanos - toleranceNanos);
+      fullNanos = Math.max(fullNanos, dueNanos) + intervalNanos;
+      return dueNanos - nowNanos;
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return nanos until the bucket is full again, i.e. no different from a new bucket
+     */
+    synchronized long nanosUntilFull(long nowNanos) {
+      return Math.max(0, fullNanos - nowNanos);
+    }
+
+    /**
+     * @return true if no sweep was scheduled, and is to be scheduled by the caller
+     */
+    synchronized boolean startSweeping() {
+      if (sweeping) {
+        return false;
+      }
+      sweeping = true;
+      return true;
+    }
+
+    synchronized void stopSweeping() {
+      sweeping = false;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import lombok.Builder;
+import lombok.ToString;
+
+/**
+ * Retries of a failed task, in place of its next attempt being run by the task itself: up to a max
+ * number of attempts, while the failure is retryable, with exponential backoff and jitter in
+ * between.
+ *
+ * <p>The backoff before the n-th retry is the initial backoff times the multiplier to the power of
+ * n - 1, capped at the max backoff, then shortened by a random fraction of up to the jitter. No
+ * thread waits out the backoff: the next attempt is handed to the worker threads by a timer.
+ *
+ * @author Qingtian Wang
+ */
+@ToString
+public final class RetryPolicy {
+  private final int maxAttempts;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final double multiplier;
+  private final double jitter;
+
+  @ToString.Exclude
+  private final Predicate<? super Throwable> retryable;
+
+  /**
+   * Private constructor backing the builder. Any unspecified argument takes its default.
+   *
+   * @param maxAttempts max number of attempts, including the first. Defaults to 3.
+   * @param initialBackoff backoff before the first retry. Defaults to 100 milliseconds.
+   * @param maxBackoff cap of the backoff before any retry. Defaults to 10 seconds.
+   * @param multiplier growth factor of the backoff per retry, not less than 1. Defaults to 2.
+   * @param jitter max fraction, from 0 to 1, by which a backoff is randomly shortened. Defaults to
+   *     0.5.
+   * @param retryable decides if a failure is worth retrying. Defaults to retrying any failure.
+   */
+  @Builder
+  private RetryPolicy(
+      Integer maxAttempts,
+      Duration initialBackoff,
+      Duration maxBackoff,
+      Double multiplier,
+      Double jitter,
+      Predicate<? super Throwable> retryable) {
+    this.maxAttempts = maxAttempts == null ? 3 : maxAttempts;
+    if (this.maxAttempts <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive max attempts, but given: " + maxAttempts);
+    }
+    this.initialBackoffNanos = initialBackoff == null
+        ? TimeUnit.MILLISECONDS.toNanos(100)
+        : Durations.toNanos(nonNegative(initialBackoff));
+    this.maxBackoffNanos = maxBackoff == null
+        ? TimeUnit.SECONDS.toNanos(10)
+        : Durations.toNanos(nonNegative(maxBackoff));
+    if (this.maxBackoffNanos < this.initialBackoffNanos) {
+      throw new IllegalArgumentException(
+          "expecting max backoff no less than initial backoff, but given: " + maxBackoff);
+    }
+    this.multiplier = multiplier == null ? 2 : multiplier;
+    if (!(this.multiplier >= 1)) {
+      throw new IllegalArgumentException(
+          "expecting backoff multiplier no less than 1, but given: " + multiplier);
+    }
+    this.jitter = jitter == null ? 0.5 : jitter;
+    if (!(this.jitter >= 0 && this.jitter <= 1)) {
+      throw new IllegalArgumentException(
+          "expecting backoff jitter from 0 to 1, but given: " + jitter);
+    }
+    this.retryable = retryable == null ? failure -> true : retryable;
+  }
+
+  private static Duration nonNegative(Duration backoff) {
+    if (backoff.isNegative()) {
+      throw new IllegalArgumentException(
+          "expecting non-negative backoff, but given: " + backoff);
+    }
+    return backoff;
+  }
+
+  /**
+   * Calls the first attempt of the task on the current thread, and any retry on the executor.
+   * Once the returned stage is done, e.g. cancelled together with the future of the submitted task,
+   * no further attempt is made; an attempt already running is not interrupted.
+   *
+   * @param task the task to attempt
+   * @param executor runs the retries of the task
+   * @return a stage that completes with the outcome of the first successful attempt, or of the
+   *     last attempt if none succeeds
+   */
+  <T> CompletableFuture<T> attempting(Callable<T> task, Executor executor) {
+    CompletableFuture<T> outcome = new CompletableFuture<>();
+    attempt(task, 1, outcome, executor);
+    return outcome;
+  }
+
+  private <T> void attempt(
+      Callable<T> task, int attempt, CompletableFuture<T> outcome, Executor executor) {
+    if (outcome.isDone()) {
+      return;
+    }
+    try {
+      outcome.complete(task.call());
+    } catch (Throwable t) {
+      if (attempt >= maxAttempts || !retryable.test(t)) {
+        outcome.completeExceptionally(t);
+        return;
+      }
+      if (outcome.isDone()) {
+        return;
+      }
+      CompletableFuture.delayedExecutor(backoffNanos(attempt), TimeUnit.NANOSECONDS, Runnable::run)
+          .execute(() -> {
+            if (outcome.isDone()) {
+              return;
+            }
+            try {
+              executor.execute(() -> attempt(task, attempt + 1, outcome, executor));
+            } catch (RejectedExecutionException e) {
+              e.addSuppressed(t);
+              outcome.completeExceptionally(e);
+            }
+          });
+    }
+  }
+
+  /**
+   * @param retry the number of the retry, starting from 1
+   * @return the backoff before the retry, jittered
+   */
+  long backoffNanos(int retry) {
+    double backoff =
+        Math.min(initialBackoffNanos * Math.pow(multiplier, retry - 1), maxBackoffNanos);
+    return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+  }
+}
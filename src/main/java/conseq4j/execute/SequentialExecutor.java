@@ -24,9 +24,16 @@
 
 package conseq4j.execute;
 
+import java.time.Duration;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Main API of conseq executor, bypassing the intermediate
@@ -57,6 +64,20 @@ public interface SequentialExecutor {
     return submit(Executors.callable(command, null), sequenceKey);
   }
 
+  /**
+   * Asynchronously executes specified command in sequence regulated by specified key, without
+   * tracking the command's completion. For callers that never look at the result, implementations
+   * can spare the allocations backing a {@link Future}. A failure of the command is reported to an
+   * uncaught exception handler, by default that of the thread running the command, rather than
+   * kept for a caller to retrieve.
+   *
+   * @param command the Runnable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   */
+  default void executeAndForget(Runnable command, Object sequenceKey) {
+    execute(UncaughtExceptions.reporting(command), sequenceKey);
+  }
+
   /**
    * Asynchronously executes specified task in sequence regulated by specified key
    *
@@ -66,4 +87,202 @@ public interface SequentialExecutor {
    * @return a Future representing pending completion of the submitted task
    */
   <T> Future<T> submit(Callable<T> task, Object sequenceKey);
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key, returning a
+   * read-only stage instead of a future: results can be composed and consumed by callbacks, without
+   * a thread blocking on {@link Future#get()}. The returned stage cannot be completed, obtruded, or
+   * cancelled by its consumers.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a stage that completes with the outcome of the submitted task
+   */
+  default <T> CompletionStage<T> submitStage(Callable<T> task, Object sequenceKey) {
+    CompletableFuture<T> outcome = new CompletableFuture<>();
+    submit(
+        () -> {
+          try {
+            T result = task.call();
+            outcome.complete(result);
+            return result;
+          } catch (Exception | Error e) {
+            outcome.completeExceptionally(e);
+            throw e;
+          }
+        },
+        sequenceKey);
+    return outcome.minimalCompletionStage();
+  }
+
+  /**
+   * Asynchronously executes specified command in sequence regulated by specified key, with the
+   * specified scheduling priority among the tasks of other keys
+   *
+   * @param command the Runnable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @param priority scheduling priority of the command, the higher the more urgent
+   * @return future holding run status of the submitted command
+   * @see #submit(Callable, Object, int)
+   */
+  default Future<Void> execute(Runnable command, Object sequenceKey, int priority) {
+    return submit(Executors.callable(command, null), sequenceKey, priority);
+  }
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key, with the
+   * specified scheduling priority among the tasks of other keys. Tasks under the same sequence key
+   * still execute in the order of submission, regardless of their priorities; when a worker thread
+   * becomes available, though, a priority-aware implementation starts the key whose next task has
+   * the highest priority. Implementations that do not schedule by priority ignore the priority.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @param priority scheduling priority of the task, the higher the more urgent
+   * @return a Future representing pending completion of the submitted task
+   */
+  default <T> Future<T> submit(Callable<T> task, Object sequenceKey, int priority) {
+    return submit(task, sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key, unless the task
+   * cannot start within the specified deadline since its submission. Instead of being run, a task
+   * past its deadline is completed exceptionally with a {@link
+   * java.util.concurrent.TimeoutException}, and the next task of the same key goes on in sequence,
+   * so that a backlog of stale tasks costs little to catch up on.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @param deadline max time since submission for the task to start
+   * @return a Future representing pending completion of the submitted task
+   */
+  default <T> Future<T> submit(Callable<T> task, Object sequenceKey, Duration deadline) {
+    return submit(Deadline.expiring(task, deadline), sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key, superseding the
+   * previous task submitted by this method under the same key if that task has not yet started. A
+   * superseded task is never run, and its future completes as cancelled; so under a burst of
+   * submissions, e.g. of price updates of which only the newest matters, only a few tasks of the
+   * key are run. Tasks submitted by other methods are never superseded. Implementations that do not
+   * conflate tasks run every task.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a Future representing pending completion of the submitted task
+   */
+  default <T> Future<T> submitConflating(Callable<T> task, Object sequenceKey) {
+    return submit(task, sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified async task, e.g. a non-blocking I/O call, in sequence
+   * regulated by specified key. The next task of the same key starts only after the stage supplied
+   * by this task completes, normally or not. Implementations that can should not hold a worker
+   * thread while waiting for the stage; by default, though, the worker thread waits for it.
+   *
+   * @param <T> the type of the task's result
+   * @param task supplies the stage of the async operation, to run sequentially with others under
+   *     the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a Future representing pending completion of the stage supplied by the task
+   */
+  default <T> Future<T> submitAsync(
+      Supplier<? extends CompletionStage<T>> task, Object sequenceKey) {
+    return submit(
+        () -> {
+          try {
+            return task.get().toCompletableFuture().get();
+          } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+          }
+        },
+        sequenceKey);
+  }
+
+  /**
+   * Asynchronously executes specified task in sequence regulated by specified key, retrying the
+   * task per the specified policy if it fails. The next task of the same key starts only after the
+   * last attempt of this task. Implementations that can should not hold a worker thread during the
+   * backoff between attempts; by default, though, the worker thread waits for the retries, which
+   * run on the common pool.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @param retryPolicy decides whether and when the task is retried after a failed attempt
+   * @return a Future representing pending completion of the last attempt of the submitted task
+   */
+  default <T> Future<T> submit(Callable<T> task, Object sequenceKey, RetryPolicy retryPolicy) {
+    return submitAsync(() -> retryPolicy.attempting(task, ForkJoinPool.commonPool()), sequenceKey);
+  }
+
+  /**
+   * Returns a stage that completes once all the tasks submitted under specified key before this
+   * call have finished, normally or not, e.g. to checkpoint the progress of the key without
+   * stopping further submissions. Tasks submitted after this call are not awaited. By default, a
+   * no-op task is submitted under the key as a barrier; implementations that can should await the
+   * key's tasks without such a submission.
+   *
+   * @param sequenceKey the key whose tasks to await
+   * @return a stage that completes when all the tasks of the key submitted so far have finished
+   */
+  default CompletionStage<Void> flush(Object sequenceKey) {
+    return submitStage(() -> null, sequenceKey).handle((r, e) -> null);
+  }
+
+  /**
+   * Returns a stage that completes once all the tasks submitted under any key before this call
+   * have finished, normally or not. Tasks submitted after this call are not awaited.
+   *
+   * <p>This is an optional operation: only the implementation knows its active keys, so the default
+   * throws. All the executors of this library support it; a custom implementation that does not
+   * should document so.
+   *
+   * @return a stage that completes when all the tasks submitted so far have finished
+   * @throws UnsupportedOperationException if the implementation does not track its active keys
+   */
+  default CompletionStage<Void> flushAll() {
+    throw new UnsupportedOperationException("flushAll is not supported by " + getClass());
+  }
+
+  /**
+   * Attempts to asynchronously execute specified task in sequence regulated by specified key,
+   * without waiting for room in the task queue of the key. Implementations that do not bound their
+   * task queues always accept the task.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @return a Future representing pending completion of the submitted task, or empty if the task
+   *     is not accepted because the task queue of the sequence key is full
+   */
+  default <T> Optional<Future<T>> trySubmit(Callable<T> task, Object sequenceKey) {
+    return Optional.of(submit(task, sequenceKey));
+  }
+
+  /**
+   * Attempts to asynchronously execute specified task in sequence regulated by specified key,
+   * waiting up to the specified timeout for room in the task queue of the key if the queue is full
+   * and the implementation is configured to block on a full queue. Implementations that do not
+   * bound their task queues always accept the task.
+   *
+   * @param <T> the type of the task's result
+   * @param task the Callable task to run sequentially with others under the same sequence key
+   * @param sequenceKey the key under which all tasks are executed sequentially
+   * @param timeout max time to wait for room in the task queue of the sequence key
+   * @return a Future representing pending completion of the submitted task, or empty if the task
+   *     is not accepted because the task queue of the sequence key is full
+   * @throws InterruptedException if interrupted while waiting
+   */
+  default <T> Optional<Future<T>> trySubmit(Callable<T> task, Object sequenceKey, Duration timeout)
+      throws InterruptedException {
+    return trySubmit(task, sequenceKey);
+  }
 }
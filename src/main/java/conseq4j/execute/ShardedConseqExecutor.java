@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import conseq4j.Terminable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Partitions sequence keys across a fixed number of independent {@link ConseqExecutor} shards,
+ * each with its own execution queue map, cleanup, and worker thread pool. A sequence key is always
+ * routed to the same shard, so tasks of the same key stay in sequence; submissions of keys on
+ * different shards never contend on the same map or resize it.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString
+public final class ShardedConseqExecutor
+    implements SequentialExecutor, LongSequentialExecutor, Terminable, AutoCloseable {
+  private static final int GOLDEN_RATIO_INT = 0x9E3779B9;
+
+  private final ConseqExecutor[] shards;
+
+  private ShardedConseqExecutor(int shardCount, Supplier<ExecutorService> workerExecutorServices) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive shard count, but given: " + shardCount);
+    }
+    this.shards = new ConseqExecutor[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = ConseqExecutor.instance(workerExecutorServices.get());
+    }
+  }
+
+  /**
+   * Default shards operate with per-task virtual threads.
+   *
+   * @param shardCount number of independent shards to partition the sequence keys across
+   * @return sharded conseq executor
+   */
+  public static @Nonnull ShardedConseqExecutor instance(int shardCount) {
+    return instance(
+        shardCount,
+        () -> Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("conseq-worker-", 1).factory()));
+  }
+
+  /**
+   * User can supply the worker thread pool of each shard. The supplier is called once per shard; it
+   * can return a new pool each time for fully independent shards, or the same pool to share the
+   * worker threads among all shards.
+   *
+   * @param shardCount number of independent shards to partition the sequence keys across
+   * @param workerExecutorServices supplies the ExecutorService that backs the async operations of
+   *     each shard
+   * @return sharded conseq executor
+   */
+  public static @Nonnull ShardedConseqExecutor instance(
+      int shardCount, @NonNull Supplier<ExecutorService> workerExecutorServices) {
+    return new ShardedConseqExecutor(shardCount, workerExecutorServices);
+  }
+
+  @Override
+  public <T> @Nonnull Future<T> submit(@NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).submit(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Optional<Future<T>> trySubmit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).trySubmit(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull CompletionStage<T> submitStage(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).submitStage(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Future<T> submitConflating(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).submitConflating(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Future<T> submitAsync(
+      @NonNull Supplier<? extends CompletionStage<T>> task, @NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).submitAsync(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Future<T> submit(
+      @NonNull Callable<T> task, @NonNull Object sequenceKey, @NonNull RetryPolicy retryPolicy) {
+    return shardOf(sequenceKey).submit(task, sequenceKey, retryPolicy);
+  }
+
+  @Override
+  public void executeAndForget(@NonNull Runnable command, @NonNull Object sequenceKey) {
+    shardOf(sequenceKey).executeAndForget(command, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Future<T> submit(@NonNull Callable<T> task, long sequenceKey) {
+    return shardOf(sequenceKey).submit(task, sequenceKey);
+  }
+
+  @Override
+  public <T> @Nonnull Optional<Future<T>> trySubmit(@NonNull Callable<T> task, long sequenceKey) {
+    return shardOf(sequenceKey).trySubmit(task, sequenceKey);
+  }
+
+  @Override
+  public void executeAndForget(@NonNull Runnable command, long sequenceKey) {
+    shardOf(sequenceKey).executeAndForget(command, sequenceKey);
+  }
+
+  @Override
+  public @Nonnull CompletionStage<Void> flush(@NonNull Object sequenceKey) {
+    return shardOf(sequenceKey).flush(sequenceKey);
+  }
+
+  /** Awaits the tasks submitted so far on all shards. */
+  @Override
+  public @Nonnull CompletionStage<Void> flushAll() {
+    CompletableFuture<?>[] flushes = new CompletableFuture<?>[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      flushes[i] = shards[i].flushAll().toCompletableFuture();
+    }
+    return CompletableFuture.allOf(flushes).minimalCompletionStage();
+  }
+
+  /**
+   * @param sequenceKey the key whose tasks are to be sequenced
+   * @return the shard hosting the sequence key
+   */
+  ConseqExecutor shardOf(Object sequenceKey) {
+    if (sequenceKey instanceof Long || sequenceKey instanceof Integer) {
+      return shardOf(((Number) sequenceKey).longValue());
+    }
+    return shardOfHash(sequenceKey.hashCode());
+  }
+
+  /**
+   * Routes a numeric key the same way whether given as a primitive long, a {@link Long}, or an
+   * {@link Integer}, so that all of them land on the shard where the key's tasks are sequenced.
+   */
+  ConseqExecutor shardOf(long sequenceKey) {
+    return shardOfHash(Long.hashCode(sequenceKey));
+  }
+
+  /**
+   * Folds the high half of the key's hash code into its low half, so that keys differing only in
+   * their high bits still spread, then scrambles it by a golden-ratio multiplication, whose high
+   * bits depend on all the bits below them, and maps those high bits onto the shard range by
+   * multiplication rather than division.
+   */
+  private ConseqExecutor shardOfHash(int hashCode) {
+    int h = (hashCode ^ hashCode >>> 16) * GOLDEN_RATIO_INT;
+    return shards[(int) (((h & 0xFFFF_FFFFL) * shards.length) >>> 32)];
+  }
+
+  /**
+   * Checks if there are no tasks pending execution on any shard.
+   *
+   * @return true if there are no pending tasks, false otherwise.
+   */
+  boolean noTaskPending() {
+    for (ConseqExecutor shard : shards) {
+      if (!shard.noTaskPending()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Orderly shutdown of all shards, and awaits their thread pool termination. */
+  @Override
+  public void close() {
+    for (ConseqExecutor shard : shards) {
+      shard.close();
+    }
+  }
+
+  @Override
+  public void terminate() {
+    for (ConseqExecutor shard : shards) {
+      shard.terminate();
+    }
+  }
+
+  @Override
+  public boolean isTerminated() {
+    for (ConseqExecutor shard : shards) {
+      if (!shard.isTerminated()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public @Nonnull List<Runnable> terminateNow() {
+    List<Runnable> neverStarted = new ArrayList<>();
+    for (ConseqExecutor shard : shards) {
+      neverStarted.addAll(shard.terminateNow());
+    }
+    return neverStarted;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
+
+/** Reports failures of tasks whose outcome no caller tracks, e.g. those executed and forgotten. */
+final class UncaughtExceptions {
+  private UncaughtExceptions() {}
+
+  /**
+   * @param failure the failure to report
+   * @param handler the handler to report to, or null to use that of the current thread
+   */
+  static void report(Throwable failure, @Nullable Thread.UncaughtExceptionHandler handler) {
+    Thread thread = Thread.currentThread();
+    (handler == null ? thread.getUncaughtExceptionHandler() : handler)
+        .uncaughtException(thread, failure);
+  }
+
+  /**
+   * @param command the Runnable task to wrap
+   * @return a Runnable that reports any failure of the command to the uncaught exception handler of
+   *     the running thread, instead of throwing it
+   */
+  static Runnable reporting(Runnable command) {
+    return () -> {
+      try {
+        command.run();
+      } catch (Throwable t) {
+        report(t, null);
+      }
+    };
+  }
+
+  /**
+   * @param command the Runnable task to adapt
+   * @param handler the handler to report to, or null to use that of the running thread
+   * @return a Callable that runs the command and returns null, reporting any failure of the command
+   *     to the handler, instead of throwing it
+   */
+  static Callable<Object> callableReporting(
+      Runnable command, @Nullable Thread.UncaughtExceptionHandler handler) {
+    return () -> {
+      try {
+        command.run();
+      } catch (Throwable t) {
+        report(t, handler);
+      }
+      return null;
+    };
+  }
+}
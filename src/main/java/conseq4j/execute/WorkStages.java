@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import static coco4j.Tasks.callUnchecked;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the work stages chained under a sequence key. The stage of an async task, i.e. one that
+ * returns a {@link CompletionStage}, completes only when the returned stage completes, so that the
+ * next stage of the key waits for it without any thread held in between.
+ */
+final class WorkStages {
+  private WorkStages() {}
+
+  /**
+   * @param executor runs the tasks
+   * @return chains work stages that run their tasks on the executor
+   */
+  static Chainer on(Executor executor) {
+    return new Chainer() {
+      @Override
+      public CompletableFuture<?> first(Callable<?> task, boolean async) {
+        return WorkStages.first(task, async, executor);
+      }
+
+      @Override
+      public CompletableFuture<?> next(CompletableFuture<?> tail, Callable<?> task, boolean async) {
+        return WorkStages.next(tail, task, async, executor);
+      }
+    };
+  }
+
+  /**
+   * @param task the task to call
+   * @param async whether the task returns a {@link CompletionStage} to wait for
+   * @param executor runs the task
+   * @return the work stage of the first task of an idle sequence key
+   */
+  static CompletableFuture<?> first(Callable<?> task, boolean async, Executor executor) {
+    CompletableFuture<?> stage = CompletableFuture.supplyAsync(() -> callUnchecked(task), executor);
+    return async ? awaitReturned(stage) : stage;
+  }
+
+  /**
+   * @param tail the current tail work stage of the sequence key
+   * @param task the task to call once the tail completes, normally or not
+   * @param async whether the task returns a {@link CompletionStage} to wait for
+   * @param executor runs the task
+   * @return the work stage of the task, as the new tail of the sequence key
+   */
+  static CompletableFuture<?> next(
+      CompletableFuture<?> tail, Callable<?> task, boolean async, Executor executor) {
+    CompletableFuture<?> stage = tail.handleAsync((r, e) -> callUnchecked(task), executor);
+    return async ? awaitReturned(stage) : stage;
+  }
+
+  /**
+   * Calls the task after a delay, without any thread held in the meantime: a timer hands the task
+   * to the executor once the delay elapses.
+   *
+   * @param task the task to call
+   * @param async whether the task returns a {@link CompletionStage} to wait for
+   * @param delayNanos the delay; if not positive, the task is called right away on the current
+   *     thread
+   * @param executor runs the task after the delay
+   * @return a stage that completes with the outcome of the task, or of the stage the task returns
+   */
+  static CompletionStage<?> delayed(
+      Callable<?> task, boolean async, long delayNanos, Executor executor) {
+    if (delayNanos <= 0) {
+      return called(task, async);
+    }
+    CompletableFuture<Object> stage = new CompletableFuture<>();
+    CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, Runnable::run)
+        .execute(() -> handOff(task, stage, executor));
+    return async ? awaitReturned(stage) : stage;
+  }
+
+  /**
+   * Calls the task on the current thread.
+   *
+   * @param task the task to call
+   * @param async whether the task returns a {@link CompletionStage} to wait for
+   * @return a stage that completes with the outcome of the task, or of the stage the task returns
+   */
+  static CompletionStage<?> called(Callable<?> task, boolean async) {
+    Object returned;
+    try {
+      returned = task.call();
+    } catch (Throwable t) {
+      return CompletableFuture.failedFuture(t);
+    }
+    return async ? (CompletionStage<?>) returned : CompletableFuture.completedFuture(returned);
+  }
+
+  /**
+   * Hands the task to the executor, e.g. from a thread that is not a worker thread.
+   *
+   * @param task the task to call
+   * @param stage completed with the outcome of the task, or exceptionally if the executor rejects
+   *     the task
+   * @param executor runs the task
+   */
+  static void handOff(Callable<?> task, CompletableFuture<Object> stage, Executor executor) {
+    try {
+      executor.execute(() -> {
+        try {
+          stage.complete(task.call());
+        } catch (Throwable t) {
+          stage.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      stage.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Cancels the stage supplied by an async task whose own future is cancelled, so that the work
+   * stage awaiting the supplied stage, and with it the next task of the key, does not wait it out.
+   * A stage that is not a {@link Future}, e.g. a minimal stage view, cannot be cancelled.
+   *
+   * @param supplied the stage supplied by the task
+   */
+  static void cancelSupplied(CompletionStage<?> supplied) {
+    if (supplied instanceof Future<?> future) {
+      future.cancel(false);
+    }
+  }
+
+  static CompletableFuture<?> awaitReturned(CompletableFuture<?> stage) {
+    return stage.thenCompose(returned -> (CompletionStage<?>) returned);
+  }
+
+  /** Chains the work stages of sequence keys, deciding where each stage runs. */
+  interface Chainer {
+    /**
+     * @param task the task to call
+     * @param async whether the task returns a {@link CompletionStage} to wait for
+     * @return the work stage of the first task of an idle sequence key
+     */
+    CompletableFuture<?> first(Callable<?> task, boolean async);
+
+    /**
+     * @param tail the current tail work stage of the sequence key
+     * @param task the task to call once the tail completes, normally or not
+     * @param async whether the task returns a {@link CompletionStage} to wait for
+     * @return the work stage of the task, as the new tail of the sequence key
+     */
+    CompletableFuture<?> next(CompletableFuture<?> tail, Callable<?> task, boolean async);
+  }
+}
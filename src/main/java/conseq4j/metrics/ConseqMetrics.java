@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+/**
+ * Instrumentation SPI, notified by the conseq4j executors of what goes on inside: how deep the task
+ * queues get, how long tasks wait behind others of the same sequence key, how long they run, and
+ * how many sequence keys are active.
+ *
+ * <p>Notifications are made inline on the submitting and worker threads, so an implementation must
+ * be thread-safe and should return quickly, without blocking. Timings are in nanoseconds per
+ * {@link System#nanoTime()}. The executors skip taking the timings altogether when configured with
+ * the {@link #noop()} instance, which is the default.
+ *
+ * @author Qingtian Wang
+ */
+public interface ConseqMetrics {
+  /**
+   * @return metrics that ignore all notifications
+   */
+  static ConseqMetrics noop() {
+    return NoopMetrics.INSTANCE;
+  }
+
+  /**
+   * A task is admitted into the task queue of its sequence key.
+   *
+   * @param queueDepth number of tasks pending in the queue, including the admitted one
+   */
+  void taskQueued(int queueDepth);
+
+  /**
+   * A task started running. Depending on the executor, the notification may come as late as the
+   * task's completion.
+   *
+   * @param waitNanos time from the submission to the start of the task
+   */
+  void taskStarted(long waitNanos);
+
+  /**
+   * A task completes running, normally or exceptionally.
+   *
+   * @param runNanos time from the start to the completion of the task
+   */
+  void taskCompleted(long runNanos);
+
+  /** A sequence key becomes active, i.e. gets its first pending task after being idle. */
+  void keyActivated();
+
+  /** A sequence key retires, i.e. becomes idle after its last pending task. */
+  void keyRetired();
+}
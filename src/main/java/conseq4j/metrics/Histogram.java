@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock-free histogram of non-negative long values, e.g. latencies in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: each power-of-two range is split into {@value
+ * #SUB_BUCKET_COUNT} equal sub-buckets, so a reported percentile is within 1/{@value
+ * #SUB_BUCKET_COUNT} of the recorded value, over the whole long range, in constant memory. Values
+ * below {@value #SUB_BUCKET_COUNT} are counted exactly. Recording is a couple of atomic increments
+ * without allocation.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+public final class Histogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+  }
+
+  private static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKET_COUNT | (bucket & (SUB_BUCKET_COUNT - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * @param value the value to record; a negative value is recorded as zero
+   */
+  public void record(long value) {
+    long recorded = Math.max(value, 0);
+    counts.getAndIncrement(bucketOf(recorded));
+    count.increment();
+    sum.add(recorded);
+    long currentMax;
+    while (recorded > (currentMax = max.get()) && !max.compareAndSet(currentMax, recorded)) {
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * @return total number of values recorded
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * @return the largest value recorded, or zero if none
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * @return arithmetic mean of the values recorded, or zero if none
+   */
+  public double mean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * Under concurrent recording, the result reflects the values recorded by the time of the scan.
+   *
+   * @param percentile in the range of 0 to 100, e.g. 99.9
+   * @return the value at or below which the specified percentage of the recorded values fall,
+   *     rounded up to the highest value of its bucket but never above {@link #max()}; zero if none
+   */
+  public long valueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException(
+          "expecting percentile in the range of 0 to 100, but given: " + percentile);
+    }
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max());
+      }
+    }
+    return max();
+  }
+
+  @Override
+  public String toString() {
+    return "Histogram(count=" + count() + ", mean=" + mean() + ", p50=" + valueAtPercentile(50)
+        + ", p99=" + valueAtPercentile(99) + ", max=" + max() + ")";
+  }
+}
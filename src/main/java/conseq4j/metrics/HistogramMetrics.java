@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.ToString;
+
+/**
+ * In-library {@link ConseqMetrics} that records the task wait times, run times, and queue depths
+ * into lock-free {@link Histogram}s, and keeps count of the active sequence keys. A wait time much
+ * longer than the run times means the latency comes from the sequencing backlog rather than the
+ * tasks themselves.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString
+public final class HistogramMetrics implements ConseqMetrics {
+  private final Histogram waitNanos = new Histogram();
+  private final Histogram runNanos = new Histogram();
+  private final Histogram queueDepth = new Histogram();
+  private final LongAdder activeKeys = new LongAdder();
+
+  private HistogramMetrics() {}
+
+  /**
+   * @return new metrics with nothing recorded
+   */
+  public static @Nonnull HistogramMetrics instance() {
+    return new HistogramMetrics();
+  }
+
+  @Override
+  public void taskQueued(int queueDepth) {
+    this.queueDepth.record(queueDepth);
+  }
+
+  @Override
+  public void taskStarted(long waitNanos) {
+    this.waitNanos.record(waitNanos);
+  }
+
+  @Override
+  public void taskCompleted(long runNanos) {
+    this.runNanos.record(runNanos);
+  }
+
+  @Override
+  public void keyActivated() {
+    activeKeys.increment();
+  }
+
+  @Override
+  public void keyRetired() {
+    activeKeys.decrement();
+  }
+
+  /**
+   * @return nanoseconds from the submission to the start of each task
+   */
+  public @Nonnull Histogram waitNanos() {
+    return waitNanos;
+  }
+
+  /**
+   * @return nanoseconds from the start to the completion of each task. The count doubles as the
+   *     number of tasks completed, for throughput.
+   */
+  public @Nonnull Histogram runNanos() {
+    return runNanos;
+  }
+
+  /**
+   * @return depth of its sequence key's task queue upon the admission of each task
+   */
+  public @Nonnull Histogram queueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return number of sequence keys currently having tasks pending
+   */
+  public long activeKeys() {
+    return activeKeys.sum();
+  }
+}
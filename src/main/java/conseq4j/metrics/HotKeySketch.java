@@ -0,0 +1,227 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import lombok.ToString;
+
+/**
+ * Streaming top-K tracker of the most frequently submitted sequence keys, in constant memory
+ * regardless of the key cardinality.
+ *
+ * <p>Submission frequencies are counted in a count-min sketch: {@value #DEPTH} rows of atomic
+ * counters, each key hashed to one counter per row, the estimate of a key being the least of its
+ * counters. A key whose estimate exceeds the smallest among the current top-K candidates becomes a
+ * candidate itself, evicting that smallest one. So that the top-K reflects the current traffic
+ * rather than all history, all counts are halved at random intervals, on average once every four
+ * times as many recordings as there are counters. The halving sweeps the counters a chunk of
+ * {@value #DECAY_CHUNK} at a time, each of the recordings that follow taking one chunk, so that no
+ * single recording pays for halving them all.
+ *
+ * <p>Recording is lock-free and allocation-free for keys that are not hot; only the admission of
+ * a new candidate, or the infrequent refresh of an existing candidate's estimate, takes a lock.
+ *
+ * @author Qingtian Wang
+ */
+@ThreadSafe
+@ToString(onlyExplicitlyIncluded = true)
+public final class HotKeySketch {
+  private static final int DEPTH = 4;
+  private static final long[] ROW_SEEDS = {
+    0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+  };
+  private static final int DEFAULT_WIDTH_BITS = 14;
+  private static final int DECAY_CHUNK = 64;
+
+  @ToString.Include
+  private final int topK;
+
+  private final int widthBits;
+  private final int decayPeriod;
+  private final AtomicLongArray counters;
+
+  /** Next counter to halve in the ongoing decay; at or past the last counter if none is ongoing */
+  private final AtomicInteger decayCursor;
+
+  /** Estimated counts of the top-K candidates; structurally modified only under its own lock */
+  private final Map<Object, Long> candidates = new ConcurrentHashMap<>();
+
+  /** Estimate a key must exceed to become a candidate; zero while there is room for candidates */
+  private volatile long admissionThreshold;
+
+  private HotKeySketch(int topK, int widthBits) {
+    if (topK <= 0) {
+      throw new IllegalArgumentException("expecting positive top K, but given: " + topK);
+    }
+    this.topK = topK;
+    this.widthBits = widthBits;
+    this.decayPeriod = (DEPTH << widthBits) * 4;
+    this.counters = new AtomicLongArray(DEPTH << widthBits);
+    this.decayCursor = new AtomicInteger(DEPTH << widthBits);
+  }
+
+  /**
+   * The sketch takes {@value #DEPTH} x 16,384 counters, i.e. 512 KiB, plus the top-K candidates.
+   *
+   * @param topK number of hot keys to track
+   * @return a new sketch
+   */
+  public static @Nonnull HotKeySketch of(int topK) {
+    return new HotKeySketch(topK, DEFAULT_WIDTH_BITS);
+  }
+
+  /**
+   * @param sequenceKey the key of a submitted task
+   * @return true if the key is among the top-K candidates after this recording
+   */
+  public boolean record(@Nonnull Object sequenceKey) {
+    long estimate = increment(sequenceKey.hashCode());
+    long threshold = admissionThreshold;
+    boolean hot = estimate > threshold
+        ? offer(sequenceKey, estimate)
+        : estimate == threshold && candidates.containsKey(sequenceKey);
+    maybeDecay();
+    return hot;
+  }
+
+  /**
+   * Same as {@link #record(Object)}, except that the key is only boxed if it is hot. A primitive
+   * key is tracked as the same key as a {@link Long} of the same value.
+   *
+   * @param sequenceKey the key of a submitted task
+   * @return true if the key is among the top-K candidates after this recording
+   */
+  public boolean record(long sequenceKey) {
+    long estimate = increment(Long.hashCode(sequenceKey));
+    long threshold = admissionThreshold;
+    boolean hot = estimate > threshold
+        ? offer(sequenceKey, estimate)
+        : estimate == threshold && candidates.containsKey(sequenceKey);
+    maybeDecay();
+    return hot;
+  }
+
+  /**
+   * @param backlog reports the number of tasks pending behind a key
+   * @return the current hot keys, hottest first
+   */
+  public @Nonnull List<HotKey> topKeys(@Nonnull ToLongFunction<Object> backlog) {
+    List<Map.Entry<Object, Long>> snapshot = new ArrayList<>(candidates.entrySet());
+    snapshot.sort(Map.Entry.<Object, Long>comparingByValue(Comparator.reverseOrder()));
+    List<HotKey> hotKeys = new ArrayList<>(snapshot.size());
+    for (Map.Entry<Object, Long> candidate : snapshot) {
+      hotKeys.add(new HotKey(
+          candidate.getKey(), candidate.getValue(), backlog.applyAsLong(candidate.getKey())));
+    }
+    return hotKeys;
+  }
+
+  private long increment(int hashCode) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      int column = (int) ((hashCode * ROW_SEEDS[row]) >>> (Long.SIZE - widthBits));
+      estimate = Math.min(estimate, counters.incrementAndGet((row << widthBits) | column));
+    }
+    return estimate;
+  }
+
+  /**
+   * An existing candidate only gets its estimate refreshed once the estimate has grown by a
+   * sixteenth, so that the hottest key does not take the lock on every submission.
+   *
+   * @return true if the key is a candidate after the offer, i.e. it is not the one evicted
+   */
+  private boolean offer(Object sequenceKey, long estimate) {
+    Long current = candidates.get(sequenceKey);
+    if (current != null && estimate - current < Math.max(1, current >>> 4)) {
+      return true;
+    }
+    synchronized (candidates) {
+      candidates.put(sequenceKey, estimate);
+      boolean admitted = true;
+      if (candidates.size() > topK) {
+        Object coldest = candidates.entrySet().stream()
+            .min(Map.Entry.comparingByValue())
+            .orElseThrow()
+            .getKey();
+        candidates.remove(coldest);
+        admitted = !coldest.equals(sequenceKey);
+      }
+      updateAdmissionThreshold();
+      return admitted;
+    }
+  }
+
+  /** Starts a decay at random, and takes one chunk of the ongoing decay, if any. */
+  private void maybeDecay() {
+    int cursor = decayCursor.get();
+    if (cursor >= counters.length()) {
+      if (ThreadLocalRandom.current().nextInt(decayPeriod) != 0
+          || !decayCursor.compareAndSet(cursor, 0)) {
+        return;
+      }
+    }
+    decayChunk();
+  }
+
+  /** Halves the next chunk of counters; halves the candidates too once the last chunk is done. */
+  private void decayChunk() {
+    int start = decayCursor.getAndAdd(DECAY_CHUNK);
+    if (start >= counters.length()) {
+      return;
+    }
+    int end = Math.min(start + DECAY_CHUNK, counters.length());
+    for (int i = start; i < end; i++) {
+      long count;
+      do {
+        count = counters.get(i);
+      } while (count != 0 && !counters.compareAndSet(i, count, count >>> 1));
+    }
+    if (end < counters.length()) {
+      return;
+    }
+    synchronized (candidates) {
+      candidates.replaceAll((key, count) -> count >>> 1);
+      candidates.values().removeIf(count -> count == 0);
+      updateAdmissionThreshold();
+    }
+  }
+
+  private void updateAdmissionThreshold() {
+    admissionThreshold = candidates.size() < topK
+        ? 0
+        : candidates.values().stream().mapToLong(Long::longValue).min().orElse(0);
+  }
+}
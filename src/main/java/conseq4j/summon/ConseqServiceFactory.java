@@ -27,17 +27,28 @@ import static java.lang.Math.floorMod;
 import static org.awaitility.Awaitility.await;
 
 import coco4j.ThreadFactories;
+import conseq4j.InFlightLimit;
+import conseq4j.OverflowPolicy;
 import conseq4j.Terminable;
+import conseq4j.metrics.ConseqMetrics;
+import conseq4j.metrics.HotKey;
+import conseq4j.metrics.HotKeySketch;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
+import lombok.Builder;
 import lombok.ToString;
 import lombok.experimental.Delegate;
 import org.awaitility.core.ConditionFactory;
@@ -55,20 +66,63 @@ public final class ConseqServiceFactory
     implements SequentialExecutorServiceFactory, Terminable, AutoCloseable {
   private static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
   private final int concurrency;
-  private final ConcurrentMap<Object, ShutdownDisabledExecutorService> sequentialExecutors;
+  private final int queueCapacity;
+  private final OverflowPolicy overflowPolicy;
+  private final InFlightLimit inFlightLimit;
+
+  @ToString.Exclude
+  private final ConseqMetrics metrics;
+
+  @ToString.Exclude
+  private final HotKeySketch hotKeySketch;
+
+  /** Indexed directly by bucket, each lazily populated on first demand */
+  private final AtomicReferenceArray<ShutdownDisabledExecutorService> sequentialExecutors;
 
   /**
-   * Private constructor for the ConseqServiceFactory class.
+   * Private constructor for the ConseqServiceFactory class, backing the builder. Any unspecified
+   * argument takes its default.
    *
    * @param concurrency The maximum number of unrelated tasks that can be executed concurrently.
+   *     Defaults to the number of available processors.
+   * @param queueCapacity The maximum number of tasks awaiting execution in the task queue of each
+   *     sequential executor. As all the sequence keys hashed to the same executor share its task
+   *     queue, the capacity applies per executor, i.e. per bucket of keys, not per key. Defaults to
+   *     no limit.
+   * @param overflowPolicy Applies to a task submitted when the task queue of its sequential
+   *     executor is full. Defaults to {@link OverflowPolicy#REJECT}.
+   * @param inFlightLimit Caps the total number of pending tasks across all sequential executors,
+   *     and can be shared with other executors. A task submitted while no permit is available is
+   *     rejected. Defaults to no limit.
+   * @param metrics Notified of the task queue depths, and the wait and run times, of all sequential
+   *     executors. Active sequence keys are not reported, as the keys are hashed into buckets
+   *     instead of being tracked. Defaults to {@link ConseqMetrics#noop()}.
+   * @param hotKeySketch Tracks the sequence keys most frequently summoned for, reported by {@link
+   *     #hotKeys()}. Defaults to no tracking.
    */
-  private ConseqServiceFactory(int concurrency) {
-    if (concurrency <= 0) {
+  @Builder
+  private ConseqServiceFactory(
+      Integer concurrency,
+      Integer queueCapacity,
+      OverflowPolicy overflowPolicy,
+      InFlightLimit inFlightLimit,
+      ConseqMetrics metrics,
+      HotKeySketch hotKeySketch) {
+    if (concurrency != null && concurrency <= 0) {
       throw new IllegalArgumentException(
           "expecting positive concurrency, but given: " + concurrency);
     }
-    this.concurrency = concurrency;
-    this.sequentialExecutors = new ConcurrentHashMap<>(concurrency);
+    if (queueCapacity != null && queueCapacity <= 0) {
+      throw new IllegalArgumentException(
+          "expecting positive queue capacity, but given: " + queueCapacity);
+    }
+    this.concurrency = concurrency == null ? DEFAULT_CONCURRENCY : concurrency;
+    this.queueCapacity = queueCapacity == null ? Integer.MAX_VALUE : queueCapacity;
+    this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.REJECT : overflowPolicy;
+    this.inFlightLimit = inFlightLimit;
+    this.metrics = metrics == null ? ConseqMetrics.noop() : metrics;
+    this.hotKeySketch = hotKeySketch;
+    this.sequentialExecutors = new AtomicReferenceArray<>(this.concurrency);
   }
 
   /**
@@ -87,7 +141,7 @@ public final class ConseqServiceFactory
    * @return An instance of ConseqServiceFactory.
    */
   public static @Nonnull ConseqServiceFactory instance(int concurrency) {
-    return new ConseqServiceFactory(concurrency);
+    return builder().concurrency(concurrency).build();
   }
 
   private static ConditionFactory awaitForever() {
@@ -103,28 +157,99 @@ public final class ConseqServiceFactory
    */
   @Override
   public ExecutorService getExecutorService(Object sequenceKey) {
-    return this.sequentialExecutors.computeIfAbsent(
-        bucketOf(sequenceKey),
-        bucket -> new ShutdownDisabledExecutorService(Executors.newSingleThreadExecutor(
-            ThreadFactories.newPlatformThreadFactory("sequential-executor"))));
+    if (sequenceKey instanceof Long || sequenceKey instanceof Integer) {
+      return getExecutorService(((Number) sequenceKey).longValue());
+    }
+    if (hotKeySketch != null) {
+      hotKeySketch.record(sequenceKey);
+    }
+    return getExecutorService(bucketOf(sequenceKey));
+  }
+
+  /**
+   * Same as {@link #getExecutorService(Object)}, computing the bucket of the primitive key
+   * directly, without boxing. Returns the same executor as a {@link Long} or {@link Integer} key
+   * of the same value does.
+   *
+   * @param sequenceKey The key for the sequence of tasks to be executed.
+   * @return a single-thread executor that does not support any shutdown action.
+   */
+  @Override
+  public ExecutorService getExecutorService(long sequenceKey) {
+    if (hotKeySketch != null) {
+      hotKeySketch.record(sequenceKey);
+    }
+    return getExecutorService(bucketOf(sequenceKey));
+  }
+
+  private int bucketOf(Object sequenceKey) {
+    if (sequenceKey instanceof Long || sequenceKey instanceof Integer) {
+      return bucketOf(((Number) sequenceKey).longValue());
+    }
+    return floorMod(Objects.hash(sequenceKey), this.concurrency);
+  }
+
+  /**
+   * Buckets a numeric key by the hash code of its {@code long} value, as {@link Long} keys always
+   * were. An {@link Integer} key, formerly bucketed by its own hash code, lands in the same bucket
+   * as before if non-negative; a negative one, whose {@code long} hash code is its complement,
+   * may land in another.
+   */
+  private int bucketOf(long sequenceKey) {
+    return floorMod(31 + Long.hashCode(sequenceKey), this.concurrency);
+  }
+
+  /**
+   * Each summon of an executor counts as a submission of the key, as the tasks themselves are not
+   * seen by the factory. As the keys are hashed into buckets, the backlog reported for a hot key is
+   * that of its bucket's executor, i.e. the tasks queued or running for all keys in the bucket.
+   *
+   * @return the current hot keys, hottest first; empty if no {@link HotKeySketch} is configured
+   */
+  public @Nonnull List<HotKey> hotKeys() {
+    if (hotKeySketch == null) {
+      return List.of();
+    }
+    return hotKeySketch.topKeys(sequenceKey -> {
+      ShutdownDisabledExecutorService sequentialExecutor =
+          sequentialExecutors.get(bucketOf(sequenceKey));
+      return sequentialExecutor == null ? 0 : sequentialExecutor.backlog();
+    });
+  }
+
+  private ExecutorService getExecutorService(int bucket) {
+    ShutdownDisabledExecutorService sequentialExecutor = this.sequentialExecutors.get(bucket);
+    if (sequentialExecutor != null) {
+      return sequentialExecutor;
+    }
+    ShutdownDisabledExecutorService created = new ShutdownDisabledExecutorService(
+        new BucketExecutor(queueCapacity, overflowPolicy, inFlightLimit, metrics));
+    ShutdownDisabledExecutorService witness =
+        this.sequentialExecutors.compareAndExchange(bucket, null, created);
+    if (witness == null) {
+      return created;
+    }
+    created.shutdownDelegate();
+    return witness;
   }
 
   /** Method to shut down all ExecutorService instances and wait for them to terminate. */
   @Override
   public void close() {
-    sequentialExecutors.values().forEach(ShutdownDisabledExecutorService::shutdownDelegate);
+    sequentialExecutors().forEach(ShutdownDisabledExecutorService::shutdownDelegate);
     awaitForever().until(this::isTerminated);
   }
 
-  private int bucketOf(Object sequenceKey) {
-    return floorMod(Objects.hash(sequenceKey), this.concurrency);
+  private Stream<ShutdownDisabledExecutorService> sequentialExecutors() {
+    return IntStream.range(0, sequentialExecutors.length())
+        .mapToObj(sequentialExecutors::get)
+        .filter(Objects::nonNull);
   }
 
   /** Method to terminate all ExecutorService instances. */
   @Override
   public void terminate() {
-    sequentialExecutors.values().parallelStream()
-        .forEach(ShutdownDisabledExecutorService::shutdownDelegate);
+    sequentialExecutors().parallel().forEach(ShutdownDisabledExecutorService::shutdownDelegate);
   }
 
   /**
@@ -134,7 +259,7 @@ public final class ConseqServiceFactory
    */
   @Override
   public boolean isTerminated() {
-    return sequentialExecutors.values().stream().allMatch(ExecutorService::isTerminated);
+    return sequentialExecutors().allMatch(ExecutorService::isTerminated);
   }
 
   /**
@@ -144,12 +269,173 @@ public final class ConseqServiceFactory
    */
   @Override
   public List<Runnable> terminateNow() {
-    return sequentialExecutors.values().parallelStream()
+    return sequentialExecutors()
+        .parallel()
         .map(ShutdownDisabledExecutorService::shutdownDelegateNow)
         .flatMap(Collection::stream)
         .toList();
   }
 
+  /**
+   * Single-thread executor of a bucket, applying the overflow policy when its task queue is full,
+   * and holding a permit of the in-flight limit, if any, for each task from submission to
+   * completion. Unless the metrics are the no-op default, each task is wrapped to carry its
+   * submission time.
+   */
+  @ToString(callSuper = true)
+  static final class BucketExecutor extends ThreadPoolExecutor {
+    private final OverflowPolicy overflowPolicy;
+    private final InFlightLimit inFlightLimit;
+
+    @ToString.Exclude
+    private final ConseqMetrics metrics;
+
+    private final boolean metered;
+
+    BucketExecutor(
+        int queueCapacity,
+        OverflowPolicy overflowPolicy,
+        InFlightLimit inFlightLimit,
+        ConseqMetrics metrics) {
+      super(
+          1,
+          1,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(queueCapacity),
+          ThreadFactories.newPlatformThreadFactory("sequential-executor"));
+      this.overflowPolicy = overflowPolicy;
+      this.inFlightLimit = inFlightLimit;
+      this.metrics = metrics;
+      this.metered = metrics != ConseqMetrics.noop();
+      setRejectedExecutionHandler((task, executor) -> overflow(task));
+    }
+
+    /** Dropped tasks are cancelled so that their futures, if any, do not stay pending forever. */
+    private static void cancel(Runnable dropped) {
+      if (unwrap(dropped) instanceof Future<?> future) {
+        future.cancel(false);
+      }
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+      if (inFlightLimit != null && !inFlightLimit.tryAcquire()) {
+        throw new RejectedExecutionException(
+            "reached in-flight limit " + inFlightLimit.maxInFlight());
+      }
+      try {
+        if (metered) {
+          metrics.taskQueued(getQueue().size() + 1);
+          super.execute(new MeteredTask(command));
+        } else {
+          super.execute(command);
+        }
+      } catch (RuntimeException e) {
+        releasePermit();
+        throw e;
+      }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      if (r instanceof MeteredTask meteredTask) {
+        meteredTask.startNanos = System.nanoTime();
+        metrics.taskStarted(meteredTask.startNanos - meteredTask.queuedNanos);
+      }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      if (r instanceof MeteredTask meteredTask) {
+        metrics.taskCompleted(System.nanoTime() - meteredTask.startNanos);
+      }
+      releasePermit();
+    }
+
+    /**
+     * Returns the tasks as submitted, rather than their metered wrappers. As the returned tasks
+     * never run on this executor, their in-flight permits are given back right away.
+     */
+    @Override
+    public @Nonnull List<Runnable> shutdownNow() {
+      List<Runnable> neverRun = super.shutdownNow();
+      neverRun.forEach(task -> releasePermit());
+      return neverRun.stream().map(BucketExecutor::unwrap).toList();
+    }
+
+    /**
+     * @return number of tasks queued or running
+     */
+    int backlog() {
+      return getQueue().size() + getActiveCount();
+    }
+
+    private static Runnable unwrap(Runnable task) {
+      return task instanceof MeteredTask meteredTask ? meteredTask.task : task;
+    }
+
+    private void releasePermit() {
+      if (inFlightLimit != null) {
+        inFlightLimit.release();
+      }
+    }
+
+    private void overflow(Runnable task) {
+      if (isShutdown()) {
+        throw new RejectedExecutionException("executor already shut down");
+      }
+      switch (overflowPolicy) {
+        case BLOCK -> {
+          try {
+            getQueue().put(task);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for room", e);
+          }
+          if (isShutdown() && getQueue().remove(task)) {
+            throw new RejectedExecutionException("executor shut down while waiting for room");
+          }
+        }
+        case REJECT -> throw new RejectedExecutionException("task queue full");
+        case DROP_OLDEST -> {
+          Runnable oldest = getQueue().poll();
+          if (oldest != null) {
+            drop(oldest);
+          }
+          if (!getQueue().offer(task)) {
+            drop(task);
+          }
+        }
+        case DROP_NEWEST -> drop(task);
+      }
+    }
+
+    private void drop(Runnable task) {
+      cancel(task);
+      releasePermit();
+    }
+
+    /** Carries the submission time of a task */
+    @ToString
+    private static final class MeteredTask implements Runnable {
+      private final Runnable task;
+      private final long queuedNanos = System.nanoTime();
+
+      /** Only accessed by the single worker thread */
+      private long startNanos;
+
+      MeteredTask(Runnable task) {
+        this.task = task;
+      }
+
+      @Override
+      public void run() {
+        task.run();
+      }
+    }
+  }
+
   /**
    * An {@link ExecutorService} that doesn't support shut down.
    *
@@ -190,6 +476,13 @@ public final class ConseqServiceFactory
       throw new UnsupportedOperationException(SHUTDOWN_UNSUPPORTED_MESSAGE);
     }
 
+    /**
+     * @return number of tasks queued or running in the delegate, if known
+     */
+    long backlog() {
+      return delegate instanceof BucketExecutor bucketExecutor ? bucketExecutor.backlog() : 0;
+    }
+
     /** Method to shut down the delegate ExecutorService. */
     void shutdownDelegate() {
       this.delegate.shutdown();
@@ -46,4 +46,16 @@ public interface SequentialExecutorServiceFactory {
    *     executes all tasks of this sequence key in the same order as they are submitted.
    */
   ExecutorService getExecutorService(Object sequenceKey);
+
+  /**
+   * Produces sequential executor for the specified primitive long sequence key, e.g. a numeric
+   * account ID. Implementations can override this to spare the boxing of the key.
+   *
+   * @param sequenceKey the key whose value is used to summon the corresponding executor.
+   * @return the sequential executor of type {@link java.util.concurrent.ExecutorService} that
+   *     executes all tasks of this sequence key in the same order as they are submitted.
+   */
+  default ExecutorService getExecutorService(long sequenceKey) {
+    return getExecutorService((Object) sequenceKey);
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package conseq4j;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+class InFlightLimitTest {
+
+  @Test
+  void errorOnNonPositiveMax() {
+    assertThrows(IllegalArgumentException.class, () -> InFlightLimit.of(0));
+  }
+
+  @Test
+  void permitsAreCappedAtMax() {
+    InFlightLimit sut = InFlightLimit.of(2);
+
+    assertTrue(sut.tryAcquire());
+    assertTrue(sut.tryAcquire());
+    assertFalse(sut.tryAcquire());
+    assertFalse(sut.hasPermit());
+    assertEquals(2, sut.inFlight());
+
+    sut.release();
+
+    assertTrue(sut.hasPermit());
+    assertTrue(sut.tryAcquire());
+  }
+
+  @Test
+  void permitAvailableSignaledOnRelease() {
+    InFlightLimit sut = InFlightLimit.of(1);
+    assertTrue(sut.whenPermitAvailable().toCompletableFuture().isDone());
+    sut.tryAcquire();
+
+    CompletableFuture<Void> permitAvailable = sut.whenPermitAvailable().toCompletableFuture();
+    assertFalse(permitAvailable.isDone());
+
+    sut.release();
+
+    assertTrue(permitAvailable.isDone());
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyTest {
+  private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  void errorOnInvalidConfig() {
+    assertThrows(
+        IllegalArgumentException.class, () -> AdaptiveConcurrency.builder().minLimit(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> AdaptiveConcurrency.builder().minLimit(5).maxLimit(4).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> AdaptiveConcurrency.builder().initialLimit(10).maxLimit(4).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> AdaptiveConcurrency.builder().tolerance(0.9).build());
+  }
+
+  @Test
+  void acquireBeyondLimitWaitsForRelease() {
+    AdaptiveConcurrency sut =
+        AdaptiveConcurrency.builder().initialLimit(1).maxLimit(1).build();
+
+    assertTrue(sut.acquire().isDone());
+    CompletableFuture<Void> waiting = sut.acquire();
+    assertFalse(waiting.isDone());
+
+    sut.release(RUN_NANOS);
+    assertTrue(waiting.isDone());
+    assertEquals(1, sut.inFlight());
+  }
+
+  @Test
+  void limitGrowsUnderSteadyRunTimesWhileSaturated() {
+    AdaptiveConcurrency sut = AdaptiveConcurrency.builder().initialLimit(10).build();
+    fill(sut);
+
+    for (int i = 0; i < 50; i++) {
+      sut.release(RUN_NANOS);
+      sut.acquire();
+    }
+
+    assertTrue(sut.limit() > 10);
+  }
+
+  @Test
+  void limitShrinksOnceRunTimesRiseBeyondTolerance() {
+    AdaptiveConcurrency sut = AdaptiveConcurrency.builder().initialLimit(50).build();
+    fill(sut);
+    for (int i = 0; i < 50; i++) {
+      sut.release(RUN_NANOS);
+      sut.acquire();
+    }
+    int steadyLimit = sut.limit();
+
+    for (int i = 0; i < 50; i++) {
+      sut.release(RUN_NANOS * 10);
+    }
+
+    assertTrue(sut.limit() < steadyLimit);
+  }
+
+  @Test
+  void limitStaysWithinBounds() {
+    AdaptiveConcurrency sut =
+        AdaptiveConcurrency.builder().initialLimit(6).minLimit(5).maxLimit(8).build();
+    fill(sut);
+
+    for (int i = 0; i < 100; i++) {
+      sut.release(RUN_NANOS);
+      sut.acquire();
+    }
+    assertEquals(8, sut.limit());
+    for (int i = 0; i < 100; i++) {
+      sut.release(RUN_NANOS * (i + 2));
+      sut.acquire();
+    }
+    assertEquals(5, sut.limit());
+  }
+
+  private static void fill(AdaptiveConcurrency sut) {
+    while (sut.acquire().isDone()) {}
+  }
+}
@@ -28,15 +28,39 @@ import static conseq4j.TestUtils.awaitAllComplete;
 import static conseq4j.TestUtils.createSpyingTasks;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Range;
+import conseq4j.DeadLetter;
+import conseq4j.FailurePolicy;
+import conseq4j.InFlightLimit;
 import conseq4j.SpyingTask;
 import conseq4j.TestUtils;
+import conseq4j.metrics.HistogramMetrics;
+import conseq4j.metrics.HotKey;
+import conseq4j.metrics.HotKeySketch;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
 
 class ConseqExecutorTest {
@@ -65,6 +89,557 @@ class ConseqExecutorTest {
     }
   }
 
+  @Test
+  void expiredTaskCompletesWithTimeoutInsteadOfRunning() throws Exception {
+    List<String> runOrder = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.submit(
+          () -> {
+            started.countDown();
+            return release.await(1, TimeUnit.MINUTES);
+          },
+          sameSequenceKey);
+      started.await();
+      Future<Boolean> expired =
+          sut.submit(() -> runOrder.add("expired"), sameSequenceKey, Duration.ofMillis(1));
+      Future<Void> next = sut.execute(() -> runOrder.add("next"), sameSequenceKey);
+      Thread.sleep(20);
+      release.countDown();
+
+      ExecutionException e = assertThrows(ExecutionException.class, expired::get);
+      assertTrue(Throwables.getCausalChain(e).stream()
+          .anyMatch(TimeoutException.class::isInstance));
+      next.get();
+    }
+    assertEquals(List.of("next"), runOrder);
+  }
+
+  @Test
+  void conflatingSubmitSupersedesPendingTaskOfEqualIntegerOrLongKey() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      sut.execute(() -> awaitUninterruptibly(release), 1L);
+      Future<String> superseded = sut.submitConflating(() -> "superseded", 1);
+      Future<String> latest = sut.submitConflating(() -> "latest", 1L);
+      release.countDown();
+
+      assertEquals("latest", latest.get());
+      assertTrue(superseded.isCancelled());
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void conflatingSubmitSupersedesPendingTasksOfSameKey() throws Exception {
+    List<Integer> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Integer>> futures = new ArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.submit(
+          () -> {
+            started.countDown();
+            return release.await(1, TimeUnit.MINUTES);
+          },
+          sameSequenceKey);
+      started.await();
+      for (int i = 0; i < TASK_COUNT; i++) {
+        int update = i;
+        futures.add(sut.submitConflating(
+            () -> {
+              runs.add(update);
+              return update;
+            },
+            sameSequenceKey));
+      }
+      release.countDown();
+
+      assertEquals(TASK_COUNT - 1, (int) futures.getLast().get());
+      await().until(sut::noTaskPending);
+    }
+    assertEquals(List.of(TASK_COUNT - 1), runs);
+    assertEquals(TASK_COUNT - 1, TestUtils.cancellationCount(futures));
+  }
+
+  @Test
+  void cancelledPendingTaskNeverRunsAndCancelledRunningTaskIsInterrupted() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Object> running = sut.submit(
+          () -> {
+            started.countDown();
+            try {
+              Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+              runs.add("interrupted");
+              throw e;
+            }
+            return null;
+          },
+          sameSequenceKey);
+      started.await();
+      Future<Boolean> pending = sut.submit(() -> runs.add("pending"), sameSequenceKey);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(pending.cancel(false));
+      assertTrue(running.cancel(true));
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("interrupted", "next"), runs);
+  }
+
+  @Test
+  void haltPolicyParksTasksBehindFailureUntilResumed() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    List<DeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .failurePolicy(FailurePolicy.HALT)
+        .deadLetterSink(deadLetters::add)
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Object> failed = sut.submit(
+          () -> {
+            throw new IllegalStateException();
+          },
+          sameSequenceKey);
+      Future<Boolean> parked = sut.submit(() -> runs.add("parked"), sameSequenceKey);
+      Future<Boolean> otherKey = sut.submit(() -> runs.add("other key"), UUID.randomUUID());
+
+      await().until(() -> sut.isHalted(sameSequenceKey));
+      assertTrue(otherKey.get());
+      assertThrows(ExecutionException.class, failed::get);
+      assertThrows(TimeoutException.class, () -> parked.get(100, TimeUnit.MILLISECONDS));
+      assertEquals(1, deadLetters.size());
+      assertEquals(sameSequenceKey, deadLetters.get(0).sequenceKey());
+      assertTrue(deadLetters.get(0).cause() instanceof IllegalStateException);
+
+      assertTrue(sut.resume(sameSequenceKey));
+      assertTrue(parked.get());
+      assertFalse(sut.isHalted(sameSequenceKey));
+    }
+    assertEquals(List.of("other key", "parked"), runs);
+  }
+
+  @Test
+  void haltPolicyNeitherHaltsNorDeadLettersTaskSkippedPastDeadline() throws Exception {
+    List<DeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .failurePolicy(FailurePolicy.HALT)
+        .deadLetterSink(deadLetters::add)
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      CountDownLatch release = new CountDownLatch(1);
+      sut.execute(() -> awaitUninterruptibly(release), sameSequenceKey);
+      Future<String> expired = sut.submit(() -> "stale", sameSequenceKey, Duration.ofMillis(1));
+      Future<String> next = sut.submit(() -> "next", sameSequenceKey);
+      TimeUnit.MILLISECONDS.sleep(50);
+      release.countDown();
+
+      assertEquals("next", next.get(1, TimeUnit.SECONDS));
+      ExecutionException expiry = assertThrows(ExecutionException.class, expired::get);
+      assertTrue(expiry.getCause() instanceof TimeoutException);
+      assertFalse(sut.isHalted(sameSequenceKey));
+      assertTrue(deadLetters.isEmpty());
+    }
+  }
+
+  @Test
+  void metricsRecordNeitherStartNorRunOfTaskSkippedPastDeadline() throws Exception {
+    HistogramMetrics metrics = HistogramMetrics.instance();
+    try (ConseqExecutor sut = ConseqExecutor.builder().metrics(metrics).build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      CountDownLatch release = new CountDownLatch(1);
+      sut.execute(() -> awaitUninterruptibly(release), sameSequenceKey);
+      Future<String> expired = sut.submit(() -> "stale", sameSequenceKey, Duration.ofMillis(1));
+      Future<String> next = sut.submit(() -> "next", sameSequenceKey);
+      TimeUnit.MILLISECONDS.sleep(50);
+      release.countDown();
+
+      assertEquals("next", next.get(1, TimeUnit.SECONDS));
+      assertThrows(ExecutionException.class, expired::get);
+      await().until(() -> metrics.runNanos().count() == 2);
+      assertEquals(2, metrics.waitNanos().count());
+    }
+  }
+
+  @Test
+  void discardParkedCancelsTasksSubmittedBeforeDiscardOnly() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut =
+        ConseqExecutor.builder().failurePolicy(FailurePolicy.HALT).build()) {
+      long sameSequenceKey = ThreadLocalRandom.current().nextLong();
+      sut.submit(
+          () -> {
+            throw new IllegalStateException();
+          },
+          sameSequenceKey);
+      Future<Boolean> parked = sut.submit(() -> runs.add("parked"), sameSequenceKey);
+      await().until(() -> sut.isHalted(sameSequenceKey));
+
+      assertTrue(sut.discardParked(sameSequenceKey));
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+      assertTrue(next.get());
+      assertTrue(parked.isCancelled());
+      await().until(() -> !sut.isHalted(sameSequenceKey) && sut.noTaskPending());
+    }
+    assertEquals(List.of("next"), runs);
+  }
+
+  @Test
+  void perKeyRateLimitSpacesTasksOfKeyWithoutHoldingWorker() throws Exception {
+    List<Long> startNanos = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .perKeyRateLimit(RateLimit.of(1, Duration.ofMillis(200)))
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      List<Future<Boolean>> throttled = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        throttled.add(sut.submit(() -> startNanos.add(System.nanoTime()), sameSequenceKey));
+      }
+      Future<Boolean> otherKey = sut.submit(() -> true, UUID.randomUUID());
+
+      assertTrue(otherKey.get(100, TimeUnit.MILLISECONDS));
+      for (Future<Boolean> future : throttled) {
+        assertTrue(future.get());
+      }
+    }
+    for (int i = 1; i < startNanos.size(); i++) {
+      assertTrue(startNanos.get(i) - startNanos.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+  }
+
+  @Test
+  void globalRateLimitThrottlesTasksAcrossKeys() throws Exception {
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .globalRateLimit(RateLimit.of(2, Duration.ofMillis(400)))
+        .build()) {
+      long startNanos = System.nanoTime();
+      List<Future<Long>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(sut.submit(System::nanoTime, UUID.randomUUID()));
+      }
+
+      assertTrue(futures.get(3).get() - startNanos >= TimeUnit.MILLISECONDS.toNanos(300));
+    }
+  }
+
+  @Test
+  void adaptiveConcurrencyCapsTasksRunningAcrossKeys() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AdaptiveConcurrency adaptiveConcurrency =
+        AdaptiveConcurrency.builder().initialLimit(2).maxLimit(2).build();
+    try (ConseqExecutor sut =
+        ConseqExecutor.builder().adaptiveConcurrency(adaptiveConcurrency).build()) {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < TASK_COUNT; i++) {
+        futures.add(sut.submit(
+            () -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              Thread.sleep(2);
+              return running.decrementAndGet();
+            },
+            UUID.randomUUID()));
+      }
+      for (Future<Integer> future : futures) {
+        future.get();
+      }
+    }
+    assertTrue(maxRunning.get() <= 2);
+    await().until(() -> adaptiveConcurrency.inFlight() == 0);
+  }
+
+  @Test
+  void keyAffinityRunsConsecutiveTasksOfKeyOnSameWorker() throws Exception {
+    CountDownLatch allSubmitted = new CountDownLatch(1);
+    List<Thread> runners = new CopyOnWriteArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .workerExecutorService(Executors.newWorkStealingPool(4))
+        .keyAffinity(true)
+        .build()) {
+      futures.add(sut.execute(() -> awaitUninterruptibly(allSubmitted), "key"));
+      for (int i = 0; i < TASK_COUNT; i++) {
+        futures.add(sut.execute(() -> runners.add(Thread.currentThread()), "key"));
+      }
+      allSubmitted.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    int workerSwitches = 0;
+    for (int i = 1; i < runners.size(); i++) {
+      if (runners.get(i) != runners.get(i - 1)) {
+        workerSwitches++;
+      }
+    }
+    assertEquals(TASK_COUNT, runners.size());
+    assertTrue(workerSwitches <= TASK_COUNT / 32, "worker switches: " + workerSwitches);
+  }
+
+  @Test
+  void keyAffinityRunsNextStageOnlyAfterPreviousStageCleanedUp() throws Exception {
+    CountDownLatch allSubmitted = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(TASK_COUNT);
+    List<Integer> inFlightSeen = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .workerExecutorService(Executors.newWorkStealingPool(4))
+        .inFlightLimit(inFlightLimit)
+        .keyAffinity(true)
+        .build()) {
+      sut.execute(() -> awaitUninterruptibly(allSubmitted), "key");
+      Future<?> first = sut.execute(() -> inFlightSeen.add(inFlightLimit.inFlight()), "key");
+      Future<?> second = sut.execute(() -> inFlightSeen.add(inFlightLimit.inFlight()), "key");
+      allSubmitted.countDown();
+      first.get();
+      second.get();
+    }
+    assertEquals(List.of(2, 1), inFlightSeen);
+  }
+
+  @Test
+  void keyAffinityNeverRunsNextStageInsideOtherKeyTaskCompletingAsyncStage() throws Exception {
+    CountDownLatch supplied = new CountDownLatch(1);
+    CompletableFuture<Void> suppliedStage = new CompletableFuture<>();
+    AtomicReference<Thread> otherKeyRunner = new AtomicReference<>();
+    AtomicBoolean ranInsideOtherKeyTask = new AtomicBoolean();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .workerExecutorService(Executors.newWorkStealingPool(2))
+        .keyAffinity(true)
+        .build()) {
+      Future<Void> async = sut.submitAsync(
+          () -> {
+            supplied.countDown();
+            return suppliedStage;
+          },
+          "asyncKey");
+      Future<Void> next = sut.execute(
+          () -> ranInsideOtherKeyTask.set(otherKeyRunner.get() == Thread.currentThread()),
+          "asyncKey");
+      supplied.await();
+
+      Future<Void> completing = sut.execute(
+          () -> {
+            otherKeyRunner.set(Thread.currentThread());
+            suppliedStage.complete(null);
+            otherKeyRunner.set(null);
+          },
+          "otherKey");
+
+      completing.get();
+      async.get();
+      next.get();
+    }
+    assertFalse(ranInsideOtherKeyTask.get());
+  }
+
+  @Test
+  void keyAffinityRequiresForkJoinPool() {
+    try (ExecutorService fixedThreadPool = Executors.newFixedThreadPool(2)) {
+      ConseqExecutor.ConseqExecutorBuilder builder =
+          ConseqExecutor.builder().workerExecutorService(fixedThreadPool).keyAffinity(true);
+
+      assertThrows(IllegalArgumentException.class, builder::build);
+    }
+  }
+
+  @Test
+  void flushAwaitsTasksSubmittedBeforeButNotAfter() throws Exception {
+    CountDownLatch releaseBefore = new CountDownLatch(1);
+    CountDownLatch releaseAfter = new CountDownLatch(1);
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      UUID sequenceKey = UUID.randomUUID();
+      Future<Boolean> before =
+          sut.submit(() -> releaseBefore.await(10, TimeUnit.SECONDS), sequenceKey);
+      CompletableFuture<Void> flush = sut.flush(sequenceKey).toCompletableFuture();
+      Future<Boolean> after =
+          sut.submit(() -> releaseAfter.await(10, TimeUnit.SECONDS), sequenceKey);
+
+      assertTrue(sut.flush(UUID.randomUUID()).toCompletableFuture().isDone());
+      assertFalse(flush.isDone());
+      releaseBefore.countDown();
+      flush.get();
+      assertTrue(before.isDone());
+      assertFalse(after.isDone());
+      releaseAfter.countDown();
+    }
+  }
+
+  @Test
+  void flushAllAwaitsTasksOfAllKeysSubmittedBefore() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Boolean>> futures = new ArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      futures.add(sut.submit(() -> release.await(10, TimeUnit.SECONDS), UUID.randomUUID()));
+      futures.add(sut.submit(() -> release.await(10, TimeUnit.SECONDS), 42L));
+      CompletableFuture<Void> flushAll = sut.flushAll().toCompletableFuture();
+
+      assertFalse(flushAll.isDone());
+      release.countDown();
+      flushAll.get();
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.isDone());
+      }
+    }
+  }
+
+  @Test
+  void haltedKeyHoldsNoAdaptiveConcurrencyPermit() throws Exception {
+    AdaptiveConcurrency adaptiveConcurrency =
+        AdaptiveConcurrency.builder().initialLimit(1).minLimit(1).maxLimit(1).build();
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .failurePolicy(FailurePolicy.HALT)
+        .adaptiveConcurrency(adaptiveConcurrency)
+        .build()) {
+      UUID haltedKey = UUID.randomUUID();
+      Future<Object> failed = sut.submit(
+          () -> {
+            throw new IllegalStateException();
+          },
+          haltedKey);
+      Future<String> parked = sut.submit(() -> "parked", haltedKey);
+
+      await().until(() -> sut.isHalted(haltedKey));
+      assertThrows(ExecutionException.class, failed::get);
+      assertEquals(0, adaptiveConcurrency.inFlight());
+      Future<String> otherKey = sut.submit(() -> "other key", UUID.randomUUID());
+      assertEquals("other key", otherKey.get(5, TimeUnit.SECONDS));
+      assertFalse(parked.isDone());
+
+      assertTrue(sut.resume(haltedKey));
+      assertEquals("parked", parked.get());
+    }
+    await().until(() -> adaptiveConcurrency.inFlight() == 0);
+  }
+
+  @Test
+  void submitStageCompletesInSequenceAndCannotBeCompletedByConsumer() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      CompletionStage<String> first = sut.submitStage(
+          () -> {
+            Thread.sleep(100);
+            runs.add("first");
+            return "first";
+          },
+          sameSequenceKey);
+      CompletionStage<String> failed = sut.submitStage(
+          () -> {
+            throw new IllegalStateException();
+          },
+          sameSequenceKey);
+      CompletionStage<Boolean> last = sut.submitStage(() -> runs.add("last"), sameSequenceKey);
+
+      assertThrows(
+          UnsupportedOperationException.class,
+          () -> ((CompletableFuture<String>) first).complete("obtruded"));
+      assertEquals("first!", first.thenApply(r -> r + "!").toCompletableFuture().get());
+      ExecutionException failure =
+          assertThrows(ExecutionException.class, () -> failed.toCompletableFuture().get());
+      assertTrue(failure.getCause() instanceof IllegalStateException);
+      assertTrue(last.toCompletableFuture().get());
+    }
+    assertEquals(List.of("first", "last"), runs);
+  }
+
+  @Test
+  void retriedTaskHoldsKeyInOrderWithoutHoldingWorkerDuringBackoff() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy retryPolicy = RetryPolicy.builder()
+        .maxAttempts(3)
+        .initialBackoff(Duration.ofMillis(200))
+        .jitter(0.0)
+        .build();
+    try (ConseqExecutor sut = ConseqExecutor.instance(Executors.newSingleThreadExecutor())) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Integer> retried = sut.submit(
+          () -> {
+            if (attempts.incrementAndGet() < 3) {
+              throw new IllegalStateException();
+            }
+            runs.add("retried");
+            return attempts.get();
+          },
+          sameSequenceKey,
+          retryPolicy);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(sut.submit(() -> runs.add("other key"), UUID.randomUUID()).get());
+      assertEquals(3, (int) retried.get());
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("other key", "retried", "next"), runs);
+  }
+
+  @Test
+  void submitAsyncRunsNextTaskOnlyAfterStageCompletesWithoutHoldingWorker() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> stage = new CompletableFuture<>();
+    try (ConseqExecutor sut = ConseqExecutor.instance(Executors.newSingleThreadExecutor())) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<String> async = sut.submitAsync(() -> stage, sameSequenceKey);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(sut.submit(() -> runs.add("other key"), UUID.randomUUID()).get());
+      assertEquals(List.of("other key"), runs);
+      stage.complete("async");
+      assertEquals("async", async.get());
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("other key", "next"), runs);
+  }
+
+  @Test
+  void inFlightLimitRefusesBeyondMax() {
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(1);
+    try (ConseqExecutor sut = ConseqExecutor.instance(
+        Executors.newVirtualThreadPerTaskExecutor(), inFlightLimit)) {
+      Future<Boolean> running =
+          sut.submit(() -> release.await(1, TimeUnit.MINUTES), UUID.randomUUID());
+
+      assertTrue(sut.trySubmit(() -> "refused", UUID.randomUUID()).isEmpty());
+      release.countDown();
+
+      assertEquals(1, TestUtils.normalCompletionCount(List.of(running)));
+      await().until(() -> inFlightLimit.inFlight() == 0);
+      assertTrue(sut.trySubmit(() -> "admitted", UUID.randomUUID()).isPresent());
+    }
+  }
+
+  @Test
+  void cancellingPendingTaskGivesBackItsPermitRightAway() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(2);
+    try (ConseqExecutor sut = ConseqExecutor.instance(
+        Executors.newVirtualThreadPerTaskExecutor(), inFlightLimit)) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Boolean> running =
+          sut.submit(() -> release.await(1, TimeUnit.MINUTES), sameSequenceKey);
+      Future<String> pending = sut.submit(() -> "cancelled", sameSequenceKey);
+      assertTrue(sut.trySubmit(() -> "refused", UUID.randomUUID()).isEmpty());
+
+      assertTrue(pending.cancel(false));
+      assertEquals(1, inFlightLimit.inFlight());
+      Optional<Future<String>> admitted = sut.trySubmit(() -> "admitted", UUID.randomUUID());
+      assertTrue(admitted.isPresent());
+      assertEquals("admitted", admitted.get().get());
+      release.countDown();
+
+      assertTrue(running.get());
+      await().until(() -> inFlightLimit.inFlight() == 0);
+    }
+  }
+
   @Test
   void executeRunsAllTasksOfSameSequenceKeyInSequence() {
     List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
@@ -77,6 +652,127 @@ class ConseqExecutorTest {
     assertTrue(Range.closed(1, TASK_COUNT).contains(actualThreadCount));
   }
 
+  @Test
+  void executeRunsAllTasksOfSameLongSequenceKeyInSequenceAcrossApis() {
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    long sameSequenceKey = 42L;
+    try (ConseqExecutor sut = ConseqExecutor.instance(TASK_COUNT)) {
+      for (int i = 0; i < TASK_COUNT; i++) {
+        switch (i % 3) {
+          case 0 -> sut.execute(tasks.get(i), sameSequenceKey);
+          case 1 -> sut.execute(tasks.get(i), Long.valueOf(sameSequenceKey));
+          default -> sut.execute(tasks.get(i), (Object) (int) sameSequenceKey);
+        }
+      }
+      TestUtils.assertConsecutiveRuntimes(tasks);
+    }
+  }
+
+  @Test
+  void noExecutorLingersOnRandomLongSequenceKeys() {
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      tasks.parallelStream()
+          .forEach(t -> sut.execute(t, ThreadLocalRandom.current().nextLong(TASK_COUNT / 10)));
+      TestUtils.awaitAllComplete(tasks);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void executeAndForgetReportsFailureToWorkerThreadHandler() {
+    List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ConseqExecutor sut = ConseqExecutor.instance(Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().uncaughtExceptionHandler((t, e) -> uncaught.add(e)).factory()))) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.executeAndForget(
+          () -> {
+            throw new IllegalStateException("failed");
+          },
+          sameSequenceKey);
+      tasks.forEach(task -> sut.executeAndForget(task, sameSequenceKey));
+      TestUtils.assertConsecutiveRuntimes(tasks);
+      await().until(() -> uncaught.size() == 1);
+      assertTrue(uncaught.getFirst() instanceof IllegalStateException);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void executeAndForgetReportsFailureToConfiguredHandler() {
+    List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ConseqExecutor sut = ConseqExecutor.builder()
+        .uncaughtExceptionHandler((thread, failure) -> uncaught.add(failure))
+        .build()) {
+      long sameSequenceKey = ThreadLocalRandom.current().nextLong();
+      sut.executeAndForget(
+          () -> {
+            throw new IllegalStateException("failed");
+          },
+          sameSequenceKey);
+      tasks.forEach(task -> sut.executeAndForget(task, sameSequenceKey));
+      TestUtils.assertConsecutiveRuntimes(tasks);
+      await().until(() -> uncaught.size() == 1);
+      assertTrue(uncaught.getFirst() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  void hotKeysReportBacklogOfHottestKey() {
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqExecutor sut =
+        ConseqExecutor.builder().hotKeySketch(HotKeySketch.of(2)).build()) {
+      sut.execute(() -> awaitUninterruptibly(release), 7L);
+      for (int i = 0; i < 10; i++) {
+        sut.execute(() -> {}, 7L);
+        sut.execute(() -> {}, UUID.randomUUID());
+      }
+
+      HotKey hottest = sut.hotKeys().getFirst();
+      assertEquals(7L, hottest.key());
+      assertEquals(11, hottest.backlog());
+      release.countDown();
+      await().until(sut::noTaskPending);
+      await().until(() -> sut.hotKeys().getFirst().backlog() == 0);
+    }
+  }
+
+  @Test
+  void cancellingRetriedTaskStopsFurtherAttemptsAndFreesItsKey() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy retryPolicy = RetryPolicy.builder()
+        .maxAttempts(5)
+        .initialBackoff(Duration.ofMillis(200))
+        .jitter(0.0)
+        .build();
+    try (ConseqExecutor sut = ConseqExecutor.instance()) {
+      Future<Object> retried = sut.submit(
+          () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException();
+          },
+          "key",
+          retryPolicy);
+      await().until(() -> attempts.get() == 1);
+
+      assertTrue(retried.cancel(false));
+      Future<String> next = sut.submit(() -> "next", "key");
+      assertEquals("next", next.get(100, TimeUnit.MILLISECONDS));
+      TimeUnit.MILLISECONDS.sleep(400);
+      assertEquals(1, attempts.get());
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   @Test
   void noExecutorLingersOnRandomSequenceKeys() {
     try (ConseqExecutor sut = ConseqExecutor.instance()) {
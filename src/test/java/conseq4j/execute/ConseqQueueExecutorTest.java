@@ -0,0 +1,728 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.Range;
+import conseq4j.InFlightLimit;
+import conseq4j.OverflowPolicy;
+import conseq4j.SpyingTask;
+import conseq4j.TestUtils;
+import conseq4j.metrics.HistogramMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ConseqQueueExecutorTest {
+  private static final int TASK_COUNT = 100;
+
+  @Test
+  void cancelledTaskShouldNotStopOtherTaskExecution() {
+    List<Future<SpyingTask>> resultFutures;
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      UUID sameSequenceKey = UUID.randomUUID();
+      resultFutures = new ArrayList<>();
+      int cancelTaskIdx = 1;
+      for (int i = 0; i < TASK_COUNT; i++) {
+        Future<SpyingTask> taskFuture = sut.submit(tasks.get(i).toCallable(), sameSequenceKey);
+        if (i == cancelTaskIdx) {
+          taskFuture.cancel(true);
+        }
+        resultFutures.add(taskFuture);
+      }
+      int cancelledCount = TestUtils.cancellationCount(resultFutures);
+      int normalCompleteCount = TestUtils.normalCompletionCount(resultFutures);
+      assertEquals(1, cancelledCount);
+      assertEquals(resultFutures.size(), cancelledCount + normalCompleteCount);
+    }
+  }
+
+  @Test
+  void cancelledPendingTaskNeverRunsAndCancelledRunningTaskIsInterrupted() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Object> running = sut.submit(
+          () -> {
+            started.countDown();
+            try {
+              Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+              runs.add("interrupted");
+              throw e;
+            }
+            return null;
+          },
+          sameSequenceKey);
+      started.await();
+      Future<Boolean> pending = sut.submit(() -> runs.add("pending"), sameSequenceKey);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(pending.cancel(false));
+      assertTrue(running.cancel(true));
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("interrupted", "next"), runs);
+  }
+
+  @Test
+  void flushAwaitsTasksSubmittedBeforeButNotAfter() throws Exception {
+    CountDownLatch releaseBefore = new CountDownLatch(1);
+    CountDownLatch releaseAfter = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sequenceKey = UUID.randomUUID();
+      Future<Boolean> before =
+          sut.submit(() -> releaseBefore.await(10, TimeUnit.SECONDS), sequenceKey);
+      CompletableFuture<Void> flush = sut.flush(sequenceKey).toCompletableFuture();
+      Future<Boolean> after =
+          sut.submit(() -> releaseAfter.await(10, TimeUnit.SECONDS), sequenceKey);
+
+      assertTrue(sut.flush(UUID.randomUUID()).toCompletableFuture().isDone());
+      assertFalse(flush.isDone());
+      releaseBefore.countDown();
+      flush.get();
+      assertTrue(before.isDone());
+      assertFalse(after.isDone());
+      releaseAfter.countDown();
+    }
+  }
+
+  @Test
+  void flushRacingFinishingTasksNeverAwaitsTaskSubmittedAfter() throws Exception {
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      for (int i = 0; i < 1000; i++) {
+        for (int j = 0; j < 10; j++) {
+          sut.execute(() -> {}, "key");
+        }
+        CompletableFuture<Void> flush = sut.flush("key").toCompletableFuture();
+        CountDownLatch releaseAfter = new CountDownLatch(1);
+        sut.execute(() -> awaitUninterruptibly(releaseAfter), "key");
+        try {
+          flush.get(5, TimeUnit.SECONDS);
+        } finally {
+          releaseAfter.countDown();
+        }
+      }
+    }
+  }
+
+  @Test
+  void flushAllAwaitsTasksOfAllKeysSubmittedBefore() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Boolean>> futures = new ArrayList<>();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      futures.add(sut.submit(() -> release.await(10, TimeUnit.SECONDS), UUID.randomUUID()));
+      futures.add(sut.submit(() -> release.await(10, TimeUnit.SECONDS), 42L));
+      CompletableFuture<Void> flushAll = sut.flushAll().toCompletableFuture();
+
+      assertFalse(flushAll.isDone());
+      release.countDown();
+      flushAll.get();
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.isDone());
+      }
+    }
+  }
+
+  @Test
+  void submitStageCompletesInSequenceAndCannotBeCompletedByConsumer() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      CompletionStage<String> first = sut.submitStage(
+          () -> {
+            Thread.sleep(100);
+            runs.add("first");
+            return "first";
+          },
+          sameSequenceKey);
+      CompletionStage<String> failed = sut.submitStage(
+          () -> {
+            throw new IllegalStateException();
+          },
+          sameSequenceKey);
+      CompletionStage<Boolean> last = sut.submitStage(() -> runs.add("last"), sameSequenceKey);
+
+      assertThrows(
+          UnsupportedOperationException.class,
+          () -> ((CompletableFuture<String>) first).complete("obtruded"));
+      assertEquals("first!", first.thenApply(r -> r + "!").toCompletableFuture().get());
+      ExecutionException failure =
+          assertThrows(ExecutionException.class, () -> failed.toCompletableFuture().get());
+      assertTrue(failure.getCause() instanceof IllegalStateException);
+      assertTrue(last.toCompletableFuture().get());
+    }
+    assertEquals(List.of("first", "last"), runs);
+  }
+
+  @Test
+  void retriedTaskHoldsKeyInOrderWithoutHoldingWorkerDuringBackoff() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy retryPolicy = RetryPolicy.builder()
+        .maxAttempts(3)
+        .initialBackoff(Duration.ofMillis(200))
+        .jitter(0.0)
+        .build();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Integer> retried = sut.submit(
+          () -> {
+            if (attempts.incrementAndGet() < 3) {
+              throw new IllegalStateException();
+            }
+            runs.add("retried");
+            return attempts.get();
+          },
+          sameSequenceKey,
+          retryPolicy);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(sut.submit(() -> runs.add("other key"), UUID.randomUUID()).get());
+      assertEquals(3, (int) retried.get());
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("other key", "retried", "next"), runs);
+  }
+
+  @Test
+  void submitAsyncRunsNextTaskOnlyAfterStageCompletesWithoutHoldingWorker() throws Exception {
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> stage = new CompletableFuture<>();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<String> async = sut.submitAsync(() -> stage, sameSequenceKey);
+      Future<Boolean> next = sut.submit(() -> runs.add("next"), sameSequenceKey);
+
+      assertTrue(sut.submit(() -> runs.add("other key"), UUID.randomUUID()).get());
+      assertEquals(List.of("other key"), runs);
+      stage.complete("async");
+      assertEquals("async", async.get());
+      assertTrue(next.get());
+    }
+    assertEquals(List.of("other key", "next"), runs);
+  }
+
+  @Test
+  void failedTaskShouldNotStopOtherTaskExecution() {
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      Future<Object> failed = sut.submit(
+          () -> {
+            throw new IllegalStateException();
+          },
+          sameSequenceKey);
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      tasks.forEach(task -> sut.execute(task, sameSequenceKey));
+      TestUtils.awaitAllComplete(tasks);
+      assertEquals(0, TestUtils.normalCompletionCount(List.of(failed)));
+    }
+  }
+
+  @Test
+  void executeAndForgetReportsFailureAndRunsOthersInSequence() {
+    List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .uncaughtExceptionHandler((thread, failure) -> uncaught.add(failure))
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      for (int i = 0; i < TASK_COUNT; i++) {
+        if (i == TASK_COUNT / 2) {
+          sut.executeAndForget(
+              () -> {
+                throw new IllegalStateException("failed");
+              },
+              sameSequenceKey);
+        }
+        sut.executeAndForget(tasks.get(i), sameSequenceKey);
+      }
+      TestUtils.assertConsecutiveRuntimes(tasks);
+      await().until(() -> uncaught.size() == 1);
+      assertTrue(uncaught.getFirst() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  void metricsRecordQueueDepthWaitRunTimesAndActiveKeys() throws InterruptedException {
+    HistogramMetrics metrics = HistogramMetrics.instance();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder().metrics(metrics).build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.execute(() -> startThenAwait(started, release), sameSequenceKey);
+      sut.execute(() -> {}, sameSequenceKey);
+      started.await();
+      assertEquals(1, metrics.activeKeys());
+
+      release.countDown();
+      await().until(() -> metrics.runNanos().count() == 2);
+      assertEquals(2, metrics.queueDepth().max());
+      assertEquals(2, metrics.waitNanos().count());
+      assertTrue(metrics.waitNanos().max() >= metrics.runNanos().valueAtPercentile(0));
+      await().until(() -> metrics.activeKeys() == 0);
+    }
+  }
+
+  @Test
+  void drainerYieldsThreadAfterBatchSize() {
+    List<String> runOrder = new CopyOnWriteArrayList<>();
+    CountDownLatch workerBlocked = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .drainBatchSize(2)
+        .build()) {
+      sut.execute(() -> awaitUninterruptibly(workerBlocked), "blocker");
+      for (int i = 0; i < 4; i++) {
+        String a = "a" + i;
+        String b = "b" + i;
+        sut.execute(() -> runOrder.add(a), "a");
+        sut.execute(() -> runOrder.add(b), "b");
+      }
+      workerBlocked.countDown();
+      await().until(() -> runOrder.size() == 8);
+    }
+    assertEquals(List.of("a0", "a1", "b0", "b1", "a2", "a3", "b2", "b3"), runOrder);
+  }
+
+  @Test
+  void fairQuantumServesLightKeysAheadOfHotKeyBacklog() {
+    List<String> runOrder = new CopyOnWriteArrayList<>();
+    CountDownLatch workerBlocked = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .fairQuantum(FairQuantum.ofTasks(1))
+        .build()) {
+      sut.execute(() -> awaitUninterruptibly(workerBlocked), "blocker");
+      for (int i = 0; i < TASK_COUNT; i++) {
+        String hot = "hot" + i;
+        sut.execute(() -> runOrder.add(hot), "hot");
+      }
+      for (int i = 0; i < 10; i++) {
+        String light = "light" + i;
+        sut.execute(() -> runOrder.add(light), light);
+      }
+      workerBlocked.countDown();
+      await().until(() -> runOrder.size() == TASK_COUNT + 10);
+    }
+    assertEquals("hot0", runOrder.getFirst());
+    assertTrue(runOrder.subList(1, 11).stream().allMatch(run -> run.startsWith("light")));
+    assertEquals("hot1", runOrder.get(11));
+  }
+
+  @Test
+  void fairTimeQuantumRunsAllTasksOfSameSequenceKeyInSequence() {
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newFixedThreadPool(4))
+        .fairQuantum(FairQuantum.ofTime(Duration.ofMillis(1)))
+        .build()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      tasks.forEach(task -> {
+        sut.execute(task, sameSequenceKey);
+        sut.execute(() -> {}, UUID.randomUUID());
+      });
+      TestUtils.assertConsecutiveRuntimes(tasks);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void prioritizedServesUrgentKeyAheadOfBulkKeysInKeyOrder() {
+    List<String> runOrder = new CopyOnWriteArrayList<>();
+    CountDownLatch workerBlocked = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .prioritized(true)
+        .build()) {
+      sut.execute(() -> awaitUninterruptibly(workerBlocked), "blocker");
+      for (int i = 0; i < 10; i++) {
+        String bulk = "bulk" + i;
+        sut.execute(() -> runOrder.add(bulk), bulk);
+      }
+      sut.execute(() -> runOrder.add("urgent0"), "urgent", 1);
+      sut.execute(() -> runOrder.add("urgent1"), "urgent", 0);
+      workerBlocked.countDown();
+      await().until(() -> runOrder.size() == 12);
+    }
+    assertEquals("urgent0", runOrder.getFirst());
+    assertTrue(runOrder.subList(1, 11).stream().allMatch(run -> run.startsWith("bulk")));
+    assertEquals("urgent1", runOrder.getLast());
+  }
+
+  @Test
+  void expiredTaskCompletesWithTimeoutInsteadOfRunning() throws Exception {
+    List<String> runOrder = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.execute(
+          () -> {
+            started.countDown();
+            awaitUninterruptibly(release);
+          },
+          sameSequenceKey);
+      started.await();
+      Future<Boolean> expired =
+          sut.submit(() -> runOrder.add("expired"), sameSequenceKey, Duration.ofMillis(1));
+      Future<Boolean> fresh =
+          sut.submit(() -> runOrder.add("fresh"), sameSequenceKey, Duration.ofMinutes(1));
+      sut.execute(() -> runOrder.add("next"), sameSequenceKey);
+      Thread.sleep(20);
+      release.countDown();
+
+      ExecutionException e = assertThrows(ExecutionException.class, expired::get);
+      assertTrue(e.getCause() instanceof TimeoutException);
+      assertTrue(fresh.get());
+      await().until(sut::noTaskPending);
+    }
+    assertEquals(List.of("fresh", "next"), runOrder);
+  }
+
+  @Test
+  void conflatingSubmitSupersedesPendingTasksOfSameKey() throws Exception {
+    List<Integer> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Future<Integer>> futures = new ArrayList<>();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      sut.execute(
+          () -> {
+            started.countDown();
+            awaitUninterruptibly(release);
+          },
+          sameSequenceKey);
+      started.await();
+      for (int i = 0; i < TASK_COUNT; i++) {
+        int update = i;
+        futures.add(sut.submitConflating(
+            () -> {
+              runs.add(update);
+              return update;
+            },
+            sameSequenceKey));
+      }
+      release.countDown();
+
+      assertEquals(TASK_COUNT - 1, (int) futures.getLast().get());
+      await().until(sut::noTaskPending);
+    }
+    assertEquals(List.of(TASK_COUNT - 1), runs);
+    assertEquals(TASK_COUNT - 1, TestUtils.cancellationCount(futures));
+  }
+
+  @Test
+  void errorOnFairQuantumWithDrainBatchSize() {
+    assertThrows(IllegalArgumentException.class, () -> ConseqQueueExecutor.builder()
+        .fairQuantum(FairQuantum.ofTasks(1))
+        .drainBatchSize(2)
+        .build());
+    assertThrows(IllegalArgumentException.class, () -> ConseqQueueExecutor.builder()
+        .prioritized(true)
+        .drainTimeBudget(Duration.ofMillis(1))
+        .build());
+    assertThrows(IllegalArgumentException.class, () -> FairQuantum.ofTasks(0));
+  }
+
+  @Test
+  void blockPolicyWaitsForRoom() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .perKeyCapacity(1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .build()) {
+      sut.execute(() -> startThenAwait(started, release), "key");
+      started.await();
+
+      assertTrue(sut.trySubmit(() -> "late", "key", Duration.ofMillis(10)).isEmpty());
+      Executors.newVirtualThreadPerTaskExecutor()
+          .execute(() -> awaitThen(Duration.ofMillis(100), release::countDown));
+      Future<String> blocked = sut.submit(() -> "blocked", "key");
+
+      assertEquals(0, release.getCount());
+      assertEquals(1, TestUtils.normalCompletionCount(List.of(blocked)));
+    }
+  }
+
+  @Test
+  void terminateNowGivesBackPermitsOfTasksNeverRunToSharedLimit() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit sharedLimit = InFlightLimit.of(4);
+    ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .workerExecutorService(Executors.newSingleThreadExecutor())
+        .inFlightLimit(sharedLimit)
+        .build();
+    sut.execute(() -> startThenAwait(started, release), "running");
+    started.await();
+    List<Future<String>> neverRun =
+        List.of(sut.submit(() -> "never run", "queued"), sut.submit(() -> "never run", "queued"));
+    assertEquals(3, sharedLimit.inFlight());
+
+    List<Runnable> neverCommenced = sut.terminateNow();
+
+    assertEquals(1, neverCommenced.size());
+    assertTrue(neverRun.stream().allMatch(Future::isCancelled));
+    release.countDown();
+    await().until(() -> sharedLimit.inFlight() == 0);
+    neverCommenced.forEach(Runnable::run);
+    assertEquals(0, sharedLimit.inFlight());
+    try (ConseqQueueExecutor other =
+        ConseqQueueExecutor.builder().inFlightLimit(sharedLimit).build()) {
+      List<Future<Integer>> admitted = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        admitted.add(other.submit(() -> 1, UUID.randomUUID()));
+      }
+      assertEquals(4, TestUtils.normalCompletionCount(admitted));
+    }
+  }
+
+  @Test
+  void cancellingQueuedTaskGivesBackRoomAndPermitToBlockedProducer() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(3);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .perKeyCapacity(2)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .inFlightLimit(inFlightLimit)
+        .build()) {
+      sut.execute(() -> startThenAwait(started, release), "key");
+      started.await();
+      Future<String> queued = sut.submit(() -> "queued", "key");
+      CompletableFuture<Future<String>> blockedSubmit = new CompletableFuture<>();
+      Executors.newVirtualThreadPerTaskExecutor()
+          .execute(() -> blockedSubmit.complete(sut.submit(() -> "blocked", "key")));
+      assertThrows(TimeoutException.class, () -> blockedSubmit.get(100, TimeUnit.MILLISECONDS));
+
+      assertTrue(queued.cancel(false));
+
+      Future<String> admitted = blockedSubmit.get(1, TimeUnit.SECONDS);
+      assertEquals(1, release.getCount());
+      assertEquals(2, inFlightLimit.inFlight());
+      release.countDown();
+      assertEquals("blocked", admitted.get());
+      await().until(() -> inFlightLimit.inFlight() == 0);
+    }
+  }
+
+  @Test
+  void dropOldestPolicyCancelsOldestNotStarted() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .perKeyCapacity(2)
+        .overflowPolicy(OverflowPolicy.DROP_OLDEST)
+        .build()) {
+      Future<Void> running = sut.execute(() -> startThenAwait(started, release), "key");
+      started.await();
+      Future<Void> oldest = sut.execute(() -> {}, "key");
+      Future<Void> newest = sut.execute(() -> {}, "key");
+      release.countDown();
+
+      assertTrue(oldest.isCancelled());
+      assertEquals(2, TestUtils.normalCompletionCount(List.of(running, newest)));
+    }
+  }
+
+  @Test
+  void dropNewestPolicyCancelsSubmitted() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder()
+        .perKeyCapacity(1)
+        .overflowPolicy(OverflowPolicy.DROP_NEWEST)
+        .build()) {
+      sut.execute(() -> startThenAwait(started, release), "key");
+      started.await();
+
+      Future<String> newest = sut.submit(() -> "newest", "key");
+      release.countDown();
+
+      assertTrue(newest.isCancelled());
+    }
+  }
+
+  @Test
+  void rejectPolicyRefusesSubmitted() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.builder().perKeyCapacity(1).build()) {
+      sut.execute(() -> startThenAwait(started, release), "key");
+      started.await();
+
+      assertThrows(RejectedExecutionException.class, () -> sut.submit(() -> "refused", "key"));
+      assertTrue(sut.trySubmit(() -> "refused", "key").isEmpty());
+      assertTrue(sut.trySubmit(() -> "otherKey", "otherKey").isPresent());
+      release.countDown();
+    }
+  }
+
+  @Test
+  void inFlightLimitRefusesBeyondMaxAcrossKeys() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(2);
+    try (ConseqQueueExecutor sut =
+        ConseqQueueExecutor.builder().inFlightLimit(inFlightLimit).build()) {
+      sut.execute(() -> startThenAwait(started, release), "key1");
+      started.await();
+      sut.execute(() -> {}, "key1");
+
+      assertThrows(RejectedExecutionException.class, () -> sut.submit(() -> "refused", "key2"));
+      assertTrue(sut.trySubmit(() -> "refused", "key3").isEmpty());
+      CompletableFuture<Void> permitAvailable =
+          inFlightLimit.whenPermitAvailable().toCompletableFuture();
+      release.countDown();
+
+      await().until(permitAvailable::isDone);
+      await().until(() -> inFlightLimit.inFlight() == 0);
+    }
+  }
+
+  @Test
+  void errorOnNonPositiveDrainBatchSize() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConseqQueueExecutor.builder().drainBatchSize(0).build());
+  }
+
+  @Test
+  void executeRunsAllTasksOfSameSequenceKeyInSequence() {
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance(TASK_COUNT * 2)) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      tasks.forEach(task -> sut.execute(task, sameSequenceKey));
+    }
+    TestUtils.assertConsecutiveRuntimes(tasks);
+    int actualThreadCount = TestUtils.actualExecutionThreadCount(tasks);
+    assertTrue(Range.closed(1, TASK_COUNT).contains(actualThreadCount));
+  }
+
+  private static void startThenAwait(CountDownLatch started, CountDownLatch release) {
+    started.countDown();
+    awaitUninterruptibly(release);
+  }
+
+  private static void awaitThen(Duration delay, Runnable action) {
+    await().pollDelay(delay).until(() -> true);
+    action.run();
+  }
+
+  @Test
+  void cancellingRetriedTaskStopsFurtherAttemptsAndFreesItsKey() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy retryPolicy = RetryPolicy.builder()
+        .maxAttempts(5)
+        .initialBackoff(Duration.ofMillis(200))
+        .jitter(0.0)
+        .build();
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      Future<Object> retried = sut.submit(
+          () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException();
+          },
+          "key",
+          retryPolicy);
+      await().until(() -> attempts.get() == 1);
+
+      assertTrue(retried.cancel(false));
+      Future<String> next = sut.submit(() -> "next", "key");
+      assertEquals("next", next.get(100, TimeUnit.MILLISECONDS));
+      TimeUnit.MILLISECONDS.sleep(400);
+      assertEquals(1, attempts.get());
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void noQueueLingersOnRandomSequenceKeys() {
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      tasks.parallelStream().forEach(t -> sut.execute(t, UUID.randomUUID()));
+      TestUtils.awaitAllComplete(tasks);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void noQueueLingersOnSameSequenceKey() {
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance()) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      tasks.parallelStream().forEach(t -> sut.execute(t, sameSequenceKey));
+      TestUtils.awaitAllComplete(tasks);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void submitConcurrencyBoundedByThreadPoolSize() {
+    int threadPoolSize = TASK_COUNT / 10;
+    List<Future<SpyingTask>> futures;
+    try (ConseqQueueExecutor sut = ConseqQueueExecutor.instance(threadPoolSize)) {
+      futures = TestUtils.createSpyingTasks(TASK_COUNT).stream()
+          .map(task -> sut.submit(task.toCallable(), UUID.randomUUID()))
+          .toList();
+    }
+    final long actualThreadCount = TestUtils.actualExecutionThreadCountIfAllCompleteNormal(futures);
+    assertEquals(threadPoolSize, actualThreadCount);
+  }
+}
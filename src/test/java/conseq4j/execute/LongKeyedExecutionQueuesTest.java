@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import conseq4j.metrics.ConseqMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+
+class LongKeyedExecutionQueuesTest {
+  private static final int KEY_COUNT = 10_000;
+
+  @Test
+  void tailsChainPerKeyAndAllEntriesAreRemovedThroughGrowAndShrink() {
+    LongKeyedExecutionQueues sut = new LongKeyedExecutionQueues(ConseqMetrics.noop());
+    List<Long> results = new ArrayList<>();
+    try (ExecutorService workerExecutorService = Executors.newSingleThreadExecutor()) {
+      long[] keys = LongStream.range(0, KEY_COUNT).map(i -> i * 31 - KEY_COUNT).toArray();
+      List<CompletableFuture<?>> firsts = new ArrayList<>();
+      List<CompletableFuture<?>> seconds = new ArrayList<>();
+      WorkStages.Chainer chainer = WorkStages.on(workerExecutorService);
+      for (long key : keys) {
+        firsts.add(sut.chain(key, () -> key, false, chainer));
+      }
+      for (long key : keys) {
+        seconds.add(sut.chain(key, () -> results.add(key), false, chainer));
+      }
+      CompletableFuture.allOf(seconds.toArray(CompletableFuture<?>[]::new)).join();
+
+      for (int i = 0; i < keys.length; i++) {
+        sut.remove(keys[i], firsts.get(i));
+      }
+      assertFalse(sut.isEmpty());
+      assertEquals(KEY_COUNT, results.size());
+      for (int i = 0; i < keys.length; i++) {
+        sut.remove(keys[i], seconds.get(i));
+      }
+      assertTrue(sut.isEmpty());
+    }
+  }
+}
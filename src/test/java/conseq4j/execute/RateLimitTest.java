@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RateLimitTest {
+
+  @Test
+  void errorOnNonPositiveConfig() {
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.of(0, Duration.ofSeconds(1)));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.of(1, Duration.ZERO));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.of(1, Duration.ofSeconds(1), 0));
+  }
+
+  @Test
+  void bucketServesBurstThenReservesPermitsAtRate() {
+    RateLimit.TokenBucket sut = RateLimit.of(2, Duration.ofSeconds(1)).newBucket(0);
+
+    assertEquals(0, sut.reserve(0));
+    assertEquals(0, sut.reserve(0));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), sut.reserve(0));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), sut.reserve(0));
+    assertEquals(
+        TimeUnit.MILLISECONDS.toNanos(1500),
+        sut.nanosUntilFull(TimeUnit.MILLISECONDS.toNanos(500)));
+  }
+
+  @Test
+  void bucketRefillsUpToBurstOnly() {
+    RateLimit.TokenBucket sut = RateLimit.of(1, Duration.ofMillis(100), 2).newBucket(0);
+    long idleNanos = TimeUnit.SECONDS.toNanos(10);
+
+    assertEquals(0, sut.reserve(idleNanos));
+    assertEquals(0, sut.reserve(idleNanos));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), sut.reserve(idleNanos));
+    assertEquals(0, sut.nanosUntilFull(idleNanos + TimeUnit.MILLISECONDS.toNanos(300)));
+  }
+}
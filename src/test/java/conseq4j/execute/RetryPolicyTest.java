@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package conseq4j.execute;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+
+  @Test
+  void errorOnInvalidConfig() {
+    assertThrows(
+        IllegalArgumentException.class, () -> RetryPolicy.builder().maxAttempts(0).build());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RetryPolicy.builder()
+            .initialBackoff(Duration.ofSeconds(2))
+            .maxBackoff(Duration.ofSeconds(1))
+            .build());
+    assertThrows(IllegalArgumentException.class, () -> RetryPolicy.builder().jitter(1.5).build());
+  }
+
+  @Test
+  void backoffGrowsExponentiallyUpToMax() {
+    RetryPolicy sut = RetryPolicy.builder()
+        .initialBackoff(Duration.ofMillis(100))
+        .maxBackoff(Duration.ofMillis(300))
+        .multiplier(2.0)
+        .jitter(0.0)
+        .build();
+
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), sut.backoffNanos(1));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(200), sut.backoffNanos(2));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(300), sut.backoffNanos(3));
+  }
+
+  @Test
+  void jitterOnlyShortensBackoff() {
+    RetryPolicy sut =
+        RetryPolicy.builder().initialBackoff(Duration.ofMillis(100)).jitter(0.5).build();
+
+    for (int i = 0; i < 100; i++) {
+      long backoffNanos = sut.backoffNanos(1);
+      assertTrue(backoffNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+      assertTrue(backoffNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+  }
+
+  @Test
+  void nonRetryableFailureEndsAttempts() {
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy sut = RetryPolicy.builder()
+        .maxAttempts(5)
+        .initialBackoff(Duration.ofMillis(1))
+        .retryable(failure -> failure instanceof IllegalStateException)
+        .build();
+
+    ExecutionException failure = assertThrows(
+        ExecutionException.class,
+        () -> sut.attempting(
+                () -> {
+                  throw attempts.incrementAndGet() < 3
+                      ? new IllegalStateException()
+                      : new IllegalArgumentException();
+                },
+                ForkJoinPool.commonPool())
+            .get());
+    assertTrue(failure.getCause() instanceof IllegalArgumentException);
+    assertEquals(3, attempts.get());
+  }
+
+  @Test
+  void cancelDuringBackoffStopsFurtherAttempts() throws InterruptedException {
+    AtomicInteger attempts = new AtomicInteger();
+    RetryPolicy sut = RetryPolicy.builder()
+        .maxAttempts(5)
+        .initialBackoff(Duration.ofMillis(100))
+        .jitter(0.0)
+        .build();
+
+    CompletableFuture<Object> outcome = sut.attempting(
+        () -> {
+          attempts.incrementAndGet();
+          throw new IllegalStateException();
+        },
+        ForkJoinPool.commonPool());
+    assertTrue(outcome.cancel(false));
+    TimeUnit.MILLISECONDS.sleep(300);
+
+    assertEquals(1, attempts.get());
+  }
+}
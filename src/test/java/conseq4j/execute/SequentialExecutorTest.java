@@ -1,11 +1,14 @@
 package conseq4j.execute;
 
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.then;
 import static org.mockito.Mockito.spy;
 
+import java.time.Duration;
+import java.util.Optional;
 import java.util.concurrent.*;
 
 class SequentialExecutorTest {
@@ -23,4 +26,20 @@ class SequentialExecutorTest {
 
     then(sequentialExecutor).should().submit(any(Callable.class), eq("testKey"));
   }
+
+  @org.junit.jupiter.api.Test
+  void trySubmitShouldDelegateToSubmit() throws InterruptedException {
+    SequentialExecutor sequentialExecutor = spy(new SequentialExecutor() {
+      @Override
+      public <T> Future<T> submit(Callable<T> task, Object sequenceKey) {
+        return CompletableFuture.completedFuture(null);
+      }
+    });
+
+    Optional<Future<Object>> submitted =
+        sequentialExecutor.trySubmit(() -> null, "testKey", Duration.ofMillis(1));
+
+    assertTrue(submitted.isPresent());
+    then(sequentialExecutor).should().submit(any(Callable.class), eq("testKey"));
+  }
 }
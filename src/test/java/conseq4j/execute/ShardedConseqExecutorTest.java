@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.execute;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import conseq4j.SpyingTask;
+import conseq4j.TestUtils;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ShardedConseqExecutorTest {
+  private static final int TASK_COUNT = 100;
+
+  @Test
+  void errorOnNonPositiveShardCount() {
+    assertThrows(IllegalArgumentException.class, () -> ShardedConseqExecutor.instance(0));
+  }
+
+  @Test
+  void executeRunsAllTasksOfSameSequenceKeyInSequence() {
+    List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+    try (ShardedConseqExecutor sut =
+        ShardedConseqExecutor.instance(8, () -> Executors.newWorkStealingPool(TASK_COUNT))) {
+      UUID sameSequenceKey = UUID.randomUUID();
+      tasks.forEach(task -> sut.execute(task, sameSequenceKey));
+      TestUtils.assertConsecutiveRuntimes(tasks);
+    }
+  }
+
+  @Test
+  void noExecutorLingersOnRandomSequenceKeys() {
+    try (ShardedConseqExecutor sut = ShardedConseqExecutor.instance(8)) {
+      List<SpyingTask> tasks = TestUtils.createSpyingTasks(TASK_COUNT);
+      tasks.parallelStream().forEach(t -> sut.execute(t, UUID.randomUUID()));
+      TestUtils.awaitAllComplete(tasks);
+      await().until(sut::noTaskPending);
+    }
+  }
+
+  @Test
+  void sameKeyAlwaysRoutesToSameShardWhileKeysSpreadAcrossShards() {
+    int shardCount = 8;
+    try (ShardedConseqExecutor sut = ShardedConseqExecutor.instance(shardCount)) {
+      Set<ConseqExecutor> usedShards = new HashSet<>();
+      IntStream.range(0, TASK_COUNT * 10).forEach(key -> {
+        ConseqExecutor shard = sut.shardOf(key);
+        assertSame(shard, sut.shardOf(key));
+        usedShards.add(shard);
+      });
+      assertEquals(shardCount, usedShards.size());
+    }
+  }
+
+  @Test
+  void keysDifferingOnlyInHighBitsSpreadAcrossShards() {
+    int shardCount = 8;
+    try (ShardedConseqExecutor sut = ShardedConseqExecutor.instance(shardCount)) {
+      Set<ConseqExecutor> usedShards = new HashSet<>();
+      IntStream.range(0, 1 << 8).forEach(high -> usedShards.add(sut.shardOf(high << 24)));
+      assertEquals(shardCount, usedShards.size());
+    }
+  }
+
+  @Test
+  void terminateNowCoversAllShards() {
+    ShardedConseqExecutor sut = ShardedConseqExecutor.instance(4);
+    sut.terminateNow();
+    await().until(sut::isTerminated);
+    assertTrue(sut.isTerminated());
+  }
+}
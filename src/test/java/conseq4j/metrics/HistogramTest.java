@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+  @Test
+  void emptyHistogramReportsZeros() {
+    Histogram histogram = new Histogram();
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.valueAtPercentile(99));
+    assertEquals(0.0, histogram.mean());
+  }
+
+  @Test
+  void smallValuesAreExact() {
+    Histogram histogram = new Histogram();
+
+    IntStream.rangeClosed(1, 10).forEach(histogram::record);
+
+    assertEquals(10, histogram.count());
+    assertEquals(5, histogram.valueAtPercentile(50));
+    assertEquals(10, histogram.valueAtPercentile(100));
+    assertEquals(5.5, histogram.mean());
+  }
+
+  @Test
+  void largeValuesAreWithinBucketPrecision() {
+    Histogram histogram = new Histogram();
+    long[] values = {1_000, 123_456, 98_765_432, Long.MAX_VALUE};
+
+    for (long value : values) {
+      histogram.record(value);
+    }
+
+    for (int i = 0; i < values.length; i++) {
+      long reported = histogram.valueAtPercentile(100.0 * (i + 1) / values.length);
+      assertTrue(reported >= values[i] && reported - values[i] <= values[i] / 16, "" + reported);
+    }
+    assertEquals(Long.MAX_VALUE, histogram.max());
+  }
+
+  @Test
+  void concurrentRecordsAreAllCounted() {
+    Histogram histogram = new Histogram();
+
+    IntStream.range(0, 100_000).parallel().forEach(histogram::record);
+
+    assertEquals(100_000, histogram.count());
+    assertEquals(99_999, histogram.max());
+  }
+
+  @Test
+  void errorOnPercentileOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> new Histogram().valueAtPercentile(101));
+  }
+}
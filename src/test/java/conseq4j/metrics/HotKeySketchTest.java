@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021 Qingtian Wang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package conseq4j.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HotKeySketchTest {
+  @Test
+  void hotKeyStandsOutAmongManyColdKeys() {
+    HotKeySketch hotKeySketch = HotKeySketch.of(3);
+
+    IntStream.range(0, 100_000).forEach(i -> {
+      hotKeySketch.record("cold-" + i);
+      if (i % 10 == 0) {
+        hotKeySketch.record("hot");
+      }
+    });
+
+    List<HotKey> hotKeys = hotKeySketch.topKeys(key -> 42);
+    assertTrue(hotKeys.size() <= 3);
+    assertEquals("hot", hotKeys.get(0).key());
+    assertEquals(42, hotKeys.get(0).backlog());
+  }
+
+  @Test
+  void primitiveAndBoxedKeysAreTheSameKey() {
+    HotKeySketch hotKeySketch = HotKeySketch.of(2);
+
+    hotKeySketch.record(7L);
+    hotKeySketch.record(Long.valueOf(7));
+
+    List<HotKey> hotKeys = hotKeySketch.topKeys(key -> 0);
+    assertEquals(1, hotKeys.size());
+    assertEquals(7L, hotKeys.get(0).key());
+  }
+
+  @Test
+  void concurrentRecordsKeepTheHottestFirst() {
+    HotKeySketch hotKeySketch = HotKeySketch.of(2);
+
+    IntStream.range(0, 100_000).parallel().forEach(i -> hotKeySketch.record(i % 4 == 0 ? 1L : i));
+
+    assertEquals(1L, hotKeySketch.topKeys(key -> 0).get(0).key());
+  }
+
+  @Test
+  void recordTellsWhetherKeyIsHot() {
+    HotKeySketch hotKeySketch = HotKeySketch.of(1);
+
+    assertTrue(hotKeySketch.record("hot"));
+    IntStream.range(0, 10).forEach(i -> assertTrue(hotKeySketch.record("hot")));
+
+    assertFalse(hotKeySketch.record("cold"));
+    assertFalse(hotKeySketch.record(7L));
+    assertTrue(hotKeySketch.record("hot"));
+  }
+
+  @Test
+  void errorOnNonPositiveTopK() {
+    assertThrows(IllegalArgumentException.class, () -> HotKeySketch.of(0));
+  }
+}
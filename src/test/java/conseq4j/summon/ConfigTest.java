@@ -41,6 +41,14 @@ class ConfigTest {
     assertThrows(IllegalArgumentException.class, () -> ConseqServiceFactory.instance(-999));
   }
 
+  @Test
+  @SuppressWarnings("resource")
+  void errorOnNonPositiveQueueCapacity() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConseqServiceFactory.builder().queueCapacity(0).build());
+  }
+
   @Test
   void shouldReturnSameExecutorOnSameName() {
     try (ConseqServiceFactory sut = ConseqServiceFactory.instance()) {
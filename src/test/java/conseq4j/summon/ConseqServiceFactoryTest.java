@@ -25,17 +25,27 @@ package conseq4j.summon;
 
 import static conseq4j.TestUtils.createSpyingTasks;
 import static conseq4j.TestUtils.getAllCompleteNormal;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.common.collect.Range;
+import conseq4j.InFlightLimit;
+import conseq4j.OverflowPolicy;
 import conseq4j.SpyingTask;
 import conseq4j.TestUtils;
+import conseq4j.metrics.HistogramMetrics;
+import conseq4j.metrics.HotKey;
+import conseq4j.metrics.HotKeySketch;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import lombok.NonNull;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -74,6 +84,178 @@ class ConseqServiceFactoryTest {
     assertTrue(totalRunThreads <= TASK_COUNT);
   }
 
+  @Test
+  void dropNewestCancelsTaskSubmittedToFullQueue() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqServiceFactory sut = ConseqServiceFactory.builder()
+        .queueCapacity(1)
+        .overflowPolicy(OverflowPolicy.DROP_NEWEST)
+        .build()) {
+      ExecutorService sequentialExecutor = sut.getExecutorService(UUID.randomUUID());
+      Future<Object> running = sequentialExecutor.submit(() -> {
+        started.countDown();
+        release.await();
+        return null;
+      });
+      started.await();
+      Future<Object> queued = sequentialExecutor.submit(() -> null);
+      Future<Object> dropped = sequentialExecutor.submit(() -> null);
+      release.countDown();
+
+      assertTrue(dropped.isCancelled());
+      assertEquals(2, TestUtils.normalCompletionCount(List.of(running, queued)));
+    }
+  }
+
+  @Test
+  void blockedProducerIsRejectedWhenExecutorStopsInsteadOfQueuingDeadTask() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Void> blockedSubmit = new CompletableFuture<>();
+    ConseqServiceFactory sut = ConseqServiceFactory.builder()
+        .concurrency(1)
+        .queueCapacity(1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .build();
+    ExecutorService sequentialExecutor = sut.getExecutorService(UUID.randomUUID());
+    sequentialExecutor.execute(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(Long.MAX_VALUE);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    started.await();
+    sequentialExecutor.execute(() -> {});
+    Thread producer = new Thread(() -> {
+      try {
+        sequentialExecutor.execute(() -> {});
+        blockedSubmit.complete(null);
+      } catch (RejectedExecutionException e) {
+        blockedSubmit.completeExceptionally(e);
+      }
+    });
+    producer.start();
+    await().until(() -> producer.getState() == Thread.State.WAITING);
+
+    sut.terminateNow();
+
+    ExecutionException rejected =
+        assertThrows(ExecutionException.class, () -> blockedSubmit.get(5, TimeUnit.SECONDS));
+    assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+    await().until(sut::isTerminated);
+  }
+
+  @Test
+  void terminateNowGivesBackPermitsOfTasksNeverRunToSharedLimit() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit sharedLimit = InFlightLimit.of(3);
+    ConseqServiceFactory sut =
+        ConseqServiceFactory.builder().concurrency(1).inFlightLimit(sharedLimit).build();
+    ExecutorService sequentialExecutor = sut.getExecutorService(UUID.randomUUID());
+    sequentialExecutor.execute(() -> {
+      started.countDown();
+      while (true) {
+        try {
+          release.await();
+          return;
+        } catch (InterruptedException e) {
+          // keeps the permit of the running task held until released
+        }
+      }
+    });
+    started.await();
+    sequentialExecutor.execute(() -> {});
+    sequentialExecutor.execute(() -> {});
+    assertEquals(3, sharedLimit.inFlight());
+
+    assertEquals(2, sut.terminateNow().size());
+
+    assertEquals(1, sharedLimit.inFlight());
+    release.countDown();
+    await().until(() -> sharedLimit.inFlight() == 0);
+    try (ConseqServiceFactory other =
+        ConseqServiceFactory.builder().inFlightLimit(sharedLimit).build()) {
+      for (int i = 0; i < 3; i++) {
+        other.getExecutorService(i).execute(() -> {});
+      }
+    }
+  }
+
+  @Test
+  void inFlightLimitRefusesBeyondMaxAcrossExecutors() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    InFlightLimit inFlightLimit = InFlightLimit.of(1);
+    try (ConseqServiceFactory sut =
+        ConseqServiceFactory.builder().concurrency(2).inFlightLimit(inFlightLimit).build()) {
+      Future<Boolean> running =
+          sut.getExecutorService(0).submit(() -> release.await(1, TimeUnit.MINUTES));
+
+      assertThrows(
+          RejectedExecutionException.class, () -> sut.getExecutorService(1).submit(() -> null));
+      release.countDown();
+
+      assertTrue(running.get());
+      await().until(() -> inFlightLimit.inFlight() == 0);
+    } catch (ExecutionException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  void longKeySummonsSameExecutorAsBoxedKeysOfSameValue() {
+    try (ConseqServiceFactory sut = ConseqServiceFactory.instance(7)) {
+      for (long key = -TASK_COUNT; key < TASK_COUNT; key++) {
+        ExecutorService executorService = sut.getExecutorService(key);
+        assertSame(executorService, sut.getExecutorService(Long.valueOf(key)));
+        assertSame(executorService, sut.getExecutorService(Integer.valueOf((int) key)));
+      }
+    }
+  }
+
+  @Test
+  void metricsRecordQueueDepthAndWaitRunTimes() {
+    HistogramMetrics metrics = HistogramMetrics.instance();
+    List<SpyingTask> tasks = createSpyingTasks(TASK_COUNT);
+    try (ConseqServiceFactory sut = ConseqServiceFactory.builder().metrics(metrics).build()) {
+      ExecutorService executorService = sut.getExecutorService(UUID.randomUUID());
+      tasks.forEach(executorService::execute);
+      TestUtils.awaitAllComplete(tasks);
+      await().until(() -> metrics.runNanos().count() == TASK_COUNT);
+      assertEquals(TASK_COUNT, metrics.queueDepth().count());
+      assertEquals(TASK_COUNT, metrics.waitNanos().count());
+      assertTrue(metrics.queueDepth().max() > 1);
+    }
+  }
+
+  @Test
+  void hotKeysReportBacklogOfBucketExecutor() {
+    CountDownLatch release = new CountDownLatch(1);
+    try (ConseqServiceFactory sut =
+        ConseqServiceFactory.builder().hotKeySketch(HotKeySketch.of(2)).build()) {
+      UUID hotKey = UUID.randomUUID();
+      sut.getExecutorService(hotKey).execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      for (int i = 0; i < 4; i++) {
+        sut.getExecutorService(hotKey).execute(() -> {});
+      }
+      sut.getExecutorService(UUID.randomUUID());
+
+      HotKey hottest = sut.hotKeys().getFirst();
+      assertEquals(hotKey, hottest.key());
+      assertTrue(hottest.backlog() >= 5);
+      release.countDown();
+      await().until(() -> sut.hotKeys().getFirst().backlog() == 0);
+    }
+  }
+
   @Test
   void higherConcurrencyRendersBetterThroughput() {
     List<SpyingTask> sameTasks = createSpyingTasks(TASK_COUNT);